@@ -0,0 +1,66 @@
+package com.github.zhongl.benchmarker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole cost the harness adds to every call, measured by benchmarking calls that do nothing, with the pool hand-off,
+ * permits and recording of each loop. Each invocation is a run of the same benchmarker, so starting its pool is
+ * spread over the calls of the run.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HarnessBenchmark {
+
+    private static final int CALLS = 100000;
+
+    @Param({"1", "4"})
+    public int concurrent;
+
+    private final CallableFactory noop = new CallableFactory() {
+        @Override
+        public Callable<?> create() {
+            return new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return null;
+                }
+            };
+        }
+    };
+
+    private Benchmarker closedLoop;
+    private Benchmarker openLoop;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PrintStream silent = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { }
+        });
+        closedLoop = new Benchmarker(noop, concurrent, CALLS).progressTo(silent);
+        openLoop = new Benchmarker(noop, concurrent, CALLS).rate(1e9).progressTo(silent); // faster than any pool
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object closedLoop() throws Exception {
+        return closedLoop.benchmark();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public Object openLoop() throws Exception {
+        return openLoop.benchmark();
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.zhongl.benchmarker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of recording a sample, which every measured latency includes: what a worker pulling calls does for
+ * each, and the steps it is made of. Contention between threads recording the same operation, and creating calls under
+ * the same lock, shows with <code>-t</code>.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordingBenchmark {
+
+    private final StatisticsCollector collector = new StatisticsCollector();
+    private final Callable<?> callable = new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+            return null;
+        }
+    };
+    private final int operation = collector.idOf(callable.getClass());
+    private final Callable<Boolean> pullStep = new Benchmarker(new CallableFactory() {
+        @Override
+        public Callable<?> create() {
+            return callable;
+        }
+    }, 1).pullStep();
+
+    @State(Scope.Thread)
+    public static class ThreadHistogram {
+        final Histogram histogram = new Histogram();
+        long value = TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public void histogramRecord(ThreadHistogram state) {
+        state.histogram.record(state.value++);
+    }
+
+    @Benchmark
+    public void collectorElapse() {
+        collector.elapse(operation, 1000000L);
+    }
+
+    @Benchmark
+    public void collectorElapseCorrected() {
+        collector.elapse(operation, 1000000L, 2000000L);
+    }
+
+    @Benchmark
+    public void collectorElapseByName() {
+        collector.elapse("call", 1000000L);
+    }
+
+    /** What a worker of a closed-loop run does for a call, but claiming it, see {@link Benchmarker#pullStep()}. */
+    @Benchmark
+    public boolean pull() throws Exception {
+        return pullStep.call();
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link Agent} runs {@link Scenario}s for a {@link Coordinator}, so load can be generated by several processes, on one
+ * machine or many, whose statistics are merged.
+ * <p/>
+ * The protocol is a session per connection, and the agent serves one session at a time:
+ * <pre>
+ * coordinator -> agent : MAGIC, scenario class name, parameters
+ * agent -> coordinator : READY, or FAILED with a message
+ * coordinator -> agent : GO, once all agents are ready
+ * agent -> coordinator : RESULT with statistics, or FAILED with a message
+ * </pre>
+ * Usage: <code>java com.github.zhongl.benchmarker.Agent &lt;port&gt; [bind address]</code>, where the bind address is
+ * the loopback one by default, e.g. 0.0.0.0 to serve coordinators of other machines, which can run any scenario on the
+ * class path of the agent.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Agent implements Runnable, Closeable {
+
+    static final int MAGIC = 0x424d4b02; // BMK and protocol version 2
+    static final byte READY = 1;
+    static final byte GO = 2;
+    static final byte RESULT = 3;
+    static final byte FAILED = 4;
+
+    private final ServerSocket serverSocket;
+
+    /** Listens on port of the loopback address. */
+    public Agent(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public Agent(InetAddress bindAddress, int port) throws IOException {
+        serverSocket = new ServerSocket(port, 0, bindAddress); // 0 is the default backlog
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) throw new IllegalArgumentException("Usage: CMD <port> [bind address]");
+        int port = Integer.parseInt(args[0]);
+        (args.length == 1 ? new Agent(port) : new Agent(InetAddress.getByName(args[1]), port)).run();
+    }
+
+    public int port() {return serverSocket.getLocalPort();}
+
+    /** Serves sessions until closed. */
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    serve(socket);
+                } finally {
+                    socket.close();
+                }
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) e.printStackTrace();
+            } catch (Exception e) {
+                e.printStackTrace(); // a broken session should not stop the agent
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != MAGIC) throw new IOException("unknown protocol from " + socket.getRemoteSocketAddress());
+
+        String scenario = in.readUTF();
+        Map<String, String> parameters = new HashMap<String, String>();
+        for (int i = in.readInt(); i > 0; i--) parameters.put(in.readUTF(), in.readUTF());
+
+        Benchmarker benchmarker;
+        try {
+            benchmarker = newScenario(scenario).create(parameters);
+        } catch (Exception e) {
+            fail(out, e);
+            return;
+        }
+        out.writeByte(READY);
+        out.flush();
+
+        if (in.readByte() != GO) throw new IOException("expect GO from " + socket.getRemoteSocketAddress());
+        try {
+            Collection<Statistics> statistics = benchmarker.benchmark();
+            out.writeByte(RESULT);
+            out.writeInt(statistics.size());
+            for (Statistics s : statistics) s.writeTo(out);
+            out.flush();
+        } catch (Exception e) {
+            fail(out, e);
+        }
+    }
+
+    /** Checks the class before initializing it, so any class but a scenario runs no code of its own. */
+    private static Scenario newScenario(String name) throws Exception {
+        Class<?> type = Class.forName(name, false, Agent.class.getClassLoader());
+        if (!Scenario.class.isAssignableFrom(type)) throw new IllegalArgumentException("not a scenario: " + name);
+        return type.asSubclass(Scenario.class).getDeclaredConstructor().newInstance();
+    }
+
+    private static void fail(DataOutputStream out, Exception e) throws IOException {
+        out.writeByte(FAILED);
+        out.writeUTF(String.valueOf(e));
+        out.flush();
+    }
+}
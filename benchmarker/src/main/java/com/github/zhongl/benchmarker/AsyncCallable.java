@@ -0,0 +1,12 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link AsyncCallable} starts a non-blocking call, which is done when the returned stage completes.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface AsyncCallable {
+    CompletionStage<?> call() throws Exception;
+}
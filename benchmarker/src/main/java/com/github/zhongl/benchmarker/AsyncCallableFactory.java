@@ -0,0 +1,6 @@
+package com.github.zhongl.benchmarker;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public interface AsyncCallableFactory {
+    AsyncCallable create();
+}
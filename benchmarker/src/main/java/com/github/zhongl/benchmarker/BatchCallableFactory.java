@@ -0,0 +1,15 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.concurrent.Callable;
+
+/**
+ * {@link BatchCallableFactory} creates many callables at once, cheaper than one by one, e.g. reserving them with one
+ * atomic update. Implementations should be thread safe.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface BatchCallableFactory extends CallableFactory {
+
+    /** @return how many callables, at most max, were put from the beginning of batch, 0 once exhausted. */
+    int create(Callable<?>[] batch, int max);
+}
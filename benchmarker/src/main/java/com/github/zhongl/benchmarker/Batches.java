@@ -0,0 +1,21 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.concurrent.Callable;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+final class Batches {
+
+    private Batches() {}
+
+    /** Creates a batch from any factory, one by one unless it is a {@link BatchCallableFactory}. */
+    static int fill(CallableFactory factory, Callable<?>[] batch, int max) {
+        if (factory instanceof BatchCallableFactory) return ((BatchCallableFactory) factory).create(batch, max);
+        int created = 0;
+        while (created < max) {
+            Callable<?> callable = factory.create();
+            if (callable == null) break;
+            batch[created++] = callable;
+        }
+        return created;
+    }
+}
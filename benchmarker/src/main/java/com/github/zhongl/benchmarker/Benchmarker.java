@@ -1,63 +1,1052 @@
 package com.github.zhongl.benchmarker;
 
-import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 
 /**
  * {@link Benchmarker} can collect performance benchmarks
+ * <p/>
+ * By default it runs closed-loop: at most concurrent calls are outstanding, and the next one is issued once a previous
+ * one returned, so a slow target lowers the offered load. With a {@link #rate(double)} it runs open-loop instead:
+ * calls are issued on a fixed schedule whatever the target does, and their latency is also measured from the intended
+ * start. With {@link #timed()} it runs open-loop too, issuing each call at the offset its {@link Timed} callable asks
+ * for, e.g. to replay a {@link TraceReplay}.
+ * <p/>
+ * Calls of an {@link AsyncCallableFactory} are timed until their stage completes, and concurrent threads only start
+ * them, so at most {@link #inFlight(int)} calls can be outstanding in either loop.
+ * Multi-step {@link Sessions} are run as such calls, one session each.
+ * <p/>
+ * Concurrent calls run on a pool of platform threads, or on {@link #virtualThreads()} to simulate far more blocking
+ * clients than a machine has OS threads for.
+ * <p/>
+ * A single dispatcher creates callables, in batches from a {@link BatchCallableFactory}, unless they are expensive
+ * enough to be created on the workers, see {@link #createOnWorkers()}. Closed-loop runs of sync calls have no
+ * dispatcher though: concurrent workers claim calls from a shared counter and call them one after another, creating
+ * them one at a time under a lock, so neither a task nor a queued future is allocated per call, and memory does not
+ * grow with times. The lock is taken once per call and serializes workers on it, which a thread safe factory avoids
+ * with {@link #createOnWorkers()}.
+ * <p/>
+ * Instead of a constant load, a {@link LoadProfile} can script the {@link #concurrency(LoadProfile)} of a closed-loop
+ * run, or the {@link #rate(LoadProfile)} of an open-loop one, and statistics of each {@link Stage} are kept apart.
+ * <p/>
+ * Statistics of every {@link #interval(long, TimeUnit)} are passed to {@link IntervalListener}s while the run is
+ * going on, e.g. a {@link TimeSeriesWriter}, along with a {@link RuntimeSample} of the benchmarker JVM, which is also
+ * kept for the whole run as {@link #runtime()}. Stacks can be sampled while the run is measured, to a flame graph
+ * by {@link #sampleStacks(File, long, TimeUnit)}.
+ * <p/>
+ * A run ends after times calls, or after its {@link #duration(long, TimeUnit)}, whichever comes first. Samples of the
+ * {@link #warmup(long, TimeUnit)} period are discarded, and the duration counts from the end of the warm-up.
+ * <p/>
+ * A call outstanding past its {@link #timeout(long, TimeUnit)} is cancelled, i.e. its thread interrupted or its stage
+ * cancelled, and recorded as a {@link CallTimeoutException}. Calls running past {@link #hungAfter(long, TimeUnit)} are
+ * reported as errors of an operation named {@value #HUNG}, with the stack of the thread blocked. Once no more calls are
+ * issued, outstanding ones are waited for at most the {@link #drain(long, TimeUnit)} time and then abandoned.
  *
  * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
  */
 public final class Benchmarker {
-    private final ExecutorService executorService;
+    static final String HUNG = "benchmarker.hung";
+
+    private static final int STEADY_WINDOWS = 5; // seconds
+    private static final long PROFILE_PERIOD_MILLIS = 100L;
+    private static final double MIN_PROFILE_RATE = 1.0; // per second, so a ramp from 0 gets going
+    private static final int BATCH_SIZE = 64;
+    private static final long MIN_WATCH_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long STOP_CHECK_MILLIS = 100L;
+    private static final int QUEUED_PER_WORKER = 4;
+    private static final AtomicIntegerFieldUpdater<Task> SETTLED =
+            AtomicIntegerFieldUpdater.newUpdater(Task.class, "settled");
+
     private final StatisticsCollector collector;
     private final int times;
     private final CallableFactory callableFactory;
-    private final Progress progress;
+    private final AsyncCallableFactory asyncCallableFactory;
+    private final int concurrent;
+    private PrintStream progressOut = System.out;
+    private Progress progress; // a fresh one per run
+    private final List<IntervalListener> intervalListeners = new ArrayList<IntervalListener>();
+
+    private ExecutorService executorService;
+    private Permits outstanding;
+    private int maxInFlight;
+    private boolean virtual;
+    private boolean createOnWorkers;
+    private volatile boolean exhausted;
+
+    private boolean openLoop;
+    private boolean timed;
+    private double arrivalNanos;
+    private LoadProfile profile;
+    private ProfileMonitor profileMonitor;
+    private long intervalNanos = TimeUnit.SECONDS.toNanos(1);
+    private IntervalMonitor intervalMonitor;
+    private long durationNanos;   // 0 means until times calls are done
+    private long warmupNanos;
+    private double steadyTolerance; // 0 means warming up for warmupNanos exactly
+    private long timeoutNanos;    // 0 means calls are never timed out
+    private long hungNanos;       // 0 means hung calls are not reported
+    private long drainNanos = TimeUnit.MINUTES.toNanos(1);
+    private Watchdog watchdog;
+    private File stacksFile;      // null means stacks are not sampled
+    private long samplePeriodNanos;
+    private StackSampler sampler;
+    private ScheduledExecutorService sampling;
+    private volatile long dispatched;
+    private final AtomicLong uncreated = new AtomicLong(); // calls issued once the factory was exhausted, so not made
+    private long abandoned;
+
+    private long start;
+    private volatile long stopAfter = Long.MAX_VALUE; // nanos since start
+    private volatile boolean measuring;
+    private volatile long measureStart;
+    private volatile long firstDone; // nanoTime when the first call of the run was done, 0 before
+    private volatile long lastDone;  // nanoTime when the last call of the run was done, or abandoned
+    private long measuredNanos;
+    private volatile Collection<Statistics> baseline = Collections.emptyList();
+    private volatile RuntimeSample runtimeBaseline;
+    private RuntimeSample runtime;
+
+    /** Creates a {@link Benchmarker} bounded by {@link #duration(long, TimeUnit)} only. */
+    public Benchmarker(CallableFactory callableFactory, int concurrent) {
+        this(callableFactory, concurrent, Integer.MAX_VALUE);
+    }
 
     public Benchmarker(CallableFactory callableFactory, int concurrent, int times) {
+        this(callableFactory, null, concurrent, times);
+    }
+
+    /** Creates a {@link Benchmarker} of async calls bounded by {@link #duration(long, TimeUnit)} only. */
+    public Benchmarker(AsyncCallableFactory asyncCallableFactory, int concurrent) {
+        this(asyncCallableFactory, concurrent, Integer.MAX_VALUE);
+    }
+
+    public Benchmarker(AsyncCallableFactory asyncCallableFactory, int concurrent, int times) {
+        this(null, asyncCallableFactory, concurrent, times);
+    }
+
+    private Benchmarker(CallableFactory callableFactory, AsyncCallableFactory asyncCallableFactory,
+                        int concurrent, int times) {
         this.callableFactory = callableFactory;
+        this.asyncCallableFactory = asyncCallableFactory;
+        this.concurrent = concurrent;
+        this.maxInFlight = concurrent;
         this.times = times;
-        BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<Runnable>(times); // avoid memory problem
-        ThreadPoolExecutor.CallerRunsPolicy policy = new ThreadPoolExecutor.CallerRunsPolicy();
-        executorService = new ThreadPoolExecutor(concurrent, concurrent, 1L, TimeUnit.MINUTES, workQueue, policy);
-        progress = new Progress(times, System.out, 1);
+        progress = new Progress(times, progressOut, 1);
         collector = new StatisticsCollector();
+        if (asyncCallableFactory instanceof Sessions) ((Sessions<?>) asyncCallableFactory).collectTo(collector);
+    }
+
+    /** Issues calls open-loop at a constant arrival rate. */
+    public Benchmarker rate(double callsPerSecond) {
+        if (callsPerSecond <= 0) throw new IllegalArgumentException("rate should be positive: " + callsPerSecond);
+        arrivalNanos = TimeUnit.SECONDS.toNanos(1) / callsPerSecond;
+        openLoop = true;
+        timed = false;
+        profile = null;
+        return this;
+    }
+
+    /** Issues calls open-loop at the offsets from the start their {@link Timed} callables ask for. */
+    public Benchmarker timed() {
+        openLoop = true;
+        timed = true;
+        profile = null;
+        return this;
+    }
+
+    /** Issues calls open-loop at the calls per second scripted by profile, which also bounds the duration. */
+    public Benchmarker rate(LoadProfile profile) {
+        this.profile = profile;
+        durationNanos = profile.durationNanos();
+        openLoop = true;
+        timed = false;
+        return this;
+    }
+
+    /**
+     * Keeps the concurrency, or the async calls in flight, scripted by profile, which also bounds the duration. The
+     * concurrency never exceeds the concurrent threads.
+     */
+    public Benchmarker concurrency(LoadProfile profile) {
+        if (asyncCallableFactory == null && profile.maxLevel() > concurrent)
+            throw new IllegalArgumentException("concurrency of profile should not exceed " + concurrent);
+        this.profile = profile;
+        durationNanos = profile.durationNanos();
+        openLoop = false;
+        timed = false;
+        return this;
+    }
+
+    /** Allows at most max async calls in flight, which is concurrent by default. */
+    public Benchmarker inFlight(int max) {
+        if (asyncCallableFactory == null) throw new IllegalStateException("only async calls can be limited in flight");
+        if (max <= 0) throw new IllegalArgumentException("max in flight should be positive: " + max);
+        maxInFlight = max;
+        return this;
+    }
+
+    /**
+     * Runs calls on virtual threads (JDK 21+), and reports parks pinning a carrier thread or failures to schedule onto
+     * one as operations named {@value VirtualThreads#PINNED} and {@value VirtualThreads#SUBMIT_FAILED}.
+     */
+    public Benchmarker virtualThreads() {
+        if (!VirtualThreads.supported())
+            throw new UnsupportedOperationException("virtual threads need JDK 21 or later");
+        if (!virtual) collector.shareStripes(4 * Runtime.getRuntime().availableProcessors()); // not one per worker
+        virtual = true;
+        return this;
+    }
+
+    /**
+     * Creates callables on the threads about to call them rather than on the dispatcher, so expensive creation goes
+     * as concurrently as the calls, untimed. The factory must be thread safe, and workers of closed-loop runs of sync
+     * calls no longer take a lock to create each call.
+     */
+    public Benchmarker createOnWorkers() {
+        createOnWorkers = true;
+        return this;
+    }
+
+    /** Sets the period of statistics passed to {@link IntervalListener}s, 1 second by default. */
+    public Benchmarker interval(long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("interval should be positive: " + period);
+        intervalNanos = unit.toNanos(period);
+        return this;
+    }
+
+    public Benchmarker listen(IntervalListener listener) {
+        intervalListeners.add(listener);
+        return this;
+    }
+
+    /** Stops issuing calls once duration is measured, not counting the warm-up. */
+    public Benchmarker duration(long duration, TimeUnit unit) {
+        if (duration <= 0) throw new IllegalArgumentException("duration should be positive: " + duration);
+        durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /** Discards samples recorded during the first period of a run. */
+    public Benchmarker warmup(long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("warm-up period should be positive: " + period);
+        warmupNanos = unit.toNanos(period);
+        steadyTolerance = 0;
+        return this;
+    }
+
+    /**
+     * Discards samples until throughput and p99 latency of the last few seconds each stay within tolerance (e.g. 0.1
+     * for 10%) of their mean, or until at most maxPeriod passed.
+     */
+    public Benchmarker warmupUntilSteady(double tolerance, long maxPeriod, TimeUnit unit) {
+        warmup(maxPeriod, unit);
+        if (tolerance <= 0) throw new IllegalArgumentException("tolerance should be positive: " + tolerance);
+        steadyTolerance = tolerance;
+        return this;
+    }
+
+    /** Times out calls outstanding for longer than timeout, which are cancelled and recorded as errors. */
+    public Benchmarker timeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout should be positive: " + timeout);
+        timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /** Reports calls running for longer than threshold, each once, without cancelling them. */
+    public Benchmarker hungAfter(long threshold, TimeUnit unit) {
+        if (threshold <= 0) throw new IllegalArgumentException("threshold should be positive: " + threshold);
+        hungNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    /** Waits at most time for outstanding calls once the run stops issuing them, 1 minute by default. */
+    public Benchmarker drain(long time, TimeUnit unit) {
+        if (time <= 0) throw new IllegalArgumentException("drain time should be positive: " + time);
+        drainNanos = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Samples stacks of the JVM every period while the run is measured, and writes them to file as collapsed stacks
+     * of a flame graph once it is done, see {@link StackSampler}.
+     */
+    public Benchmarker sampleStacks(File collapsed, long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("sample period should be positive: " + period);
+        stacksFile = collapsed;
+        samplePeriodNanos = unit.toNanos(period);
+        return this;
+    }
+
+    /** Prints progress of runs to out, {@link System#out} by default. */
+    public Benchmarker progressTo(PrintStream out) {
+        progressOut = out;
+        return this;
     }
 
     public Collection<Statistics> benchmark() throws InterruptedException {
-        collector.start();
-        for (int i = 0; i < times; i++) {
-            executorService.submit(new Task(callableFactory.create()));
+        if (timed && createOnWorkers) throw new IllegalStateException("timed calls should be created before issued");
+        ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("benchmarker-monitor").setDaemon(true).build());
+        executorService = newExecutorService();
+        outstanding = new Permits(permits());
+        progress = new Progress(times, progressOut, 1);
+        dispatched = 0L;
+        uncreated.set(0L);
+        abandoned = 0L;
+        firstDone = 0L;
+        exhausted = false;
+        measuring = false;
+        stopAfter = Long.MAX_VALUE;
+        baseline = collector.snapshot(); // statistics of earlier runs are left out
+        watchdog = timeoutNanos > 0 || hungNanos > 0 ? new Watchdog() : null;
+        ScheduledExecutorService watching = null;
+        if (watchdog != null) {
+            watching = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("benchmarker-watchdog").setDaemon(true).build());
+            long period = watchdog.period();
+            watching.scheduleAtFixedRate(watchdog, period, period, TimeUnit.NANOSECONDS);
+        }
+        sampler = stacksFile == null ? null : new StackSampler();
+        sampling = sampler == null ? null : Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("benchmarker-sampler").setDaemon(true).build());
+        Closeable anomalies = virtual ? VirtualThreads.monitorAnomalies(collector) : null;
+        start = System.nanoTime();
+        if (warmupNanos == 0) {
+            measureFrom(start);
+        } else if (steadyTolerance == 0) {
+            monitor.schedule(new FixedWarmup(), warmupNanos, TimeUnit.NANOSECONDS);
+        } else {
+            monitor.scheduleAtFixedRate(new SteadyWarmup(), 1L, 1L, TimeUnit.SECONDS);
+        }
+        if (!intervalListeners.isEmpty()) {
+            intervalMonitor = new IntervalMonitor();
+            monitor.scheduleAtFixedRate(intervalMonitor, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+        if (profile != null) {
+            profileMonitor = new ProfileMonitor();
+            monitor.scheduleAtFixedRate(profileMonitor, 0L, PROFILE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
         }
 
+        Thread dispatcher = new Thread(new Dispatcher(), "benchmarker-dispatcher");
+        dispatcher.start();
         progress.awaitAndprintStatus();
-        executorService.shutdown();
-        return collector.haltAndGetStatistics();
+        dispatcher.join();
+        measuredNanos = measuring ? measuredUntil(lastDone) : 0L; // before writing stacks, nor shutting down below
+        if (measuring) runtime = accounted(RuntimeSample.now().minus(runtimeBaseline));
+        monitor.shutdownNow();
+        monitor.awaitTermination(1L, TimeUnit.MINUTES);
+        if (watching != null) {
+            watching.shutdownNow();
+            watching.awaitTermination(1L, TimeUnit.MINUTES);
+        }
+        if (anomalies != null) close(anomalies);
+        if (sampling != null) {
+            sampling.shutdownNow();
+            sampling.awaitTermination(1L, TimeUnit.MINUTES);
+            try {
+                sampler.writeTo(stacksFile);
+            } catch (IOException e) {
+                throw new IllegalStateException("can't write stacks to " + stacksFile, e);
+            }
+        }
+
+        Collection<Statistics> statistics = collector.snapshot();
+        if (intervalMonitor != null) intervalMonitor.tick(System.nanoTime(), statistics);
+        if (!measuring) return Collections.emptyList();
+        if (profileMonitor != null) profileMonitor.cutAt(profile.stages().size(), statistics);
+        return difference(statistics, baseline, false);
+    }
+
+    /** @return nanos measured until the stop condition fired or the last call was done, whichever came first. */
+    private long measuredUntil(long end) {
+        return Math.min(end - start, stopAfter) - (measureStart - start); // neither draining nor shutting down
+    }
+
+    /** @return what the JVM did, e.g. collecting garbage, while the last run was measured, null before. */
+    public RuntimeSample runtime() {return runtime;}
+
+    /** @return the sampler of stacks of the last run, with its overhead, or null if stacks were not sampled. */
+    public StackSampler stackSampler() {return sampler;}
+
+    /** @return how long the last run was measured, not counting the warm-up, e.g. for {@link Results}. */
+    public long measuredNanos() {return measuredNanos;}
+
+    /** @return how long from the start of the last run until its first call completed, or -1 if none did. */
+    public long firstCallNanos() {
+        long first = firstDone;
+        return first == 0L ? -1L : first - start;
+    }
+
+    /** @return how long the last run warmed up before being measured, e.g. until steady, or -1 if never measured. */
+    public long warmedUpNanos() {return measuredNanos > 0 ? measureStart - start : -1L;}
+
+    /** @return calls of the last run still outstanding or queued when draining timed out, which are not recorded. */
+    public long abandoned() {return abandoned;}
+
+    private ExecutorService newExecutorService() {
+        // times is unlimited for a duration, so bound by workers, or an open loop ahead of them would queue calls
+        // without end, instead it blocks the dispatcher, and late calls are still corrected from their intended starts
+        int capacity = (int) Math.min(Integer.MAX_VALUE, (long) concurrent * QUEUED_PER_WORKER);
+        BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<Runnable>(capacity);
+        RejectedExecutionHandler policy = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) throw new RejectedExecutionException("shut down");
+                try {
+                    executor.getQueue().put(task); // only the dispatcher executes, so it waits for room
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        };
+        ThreadFactory factory = virtual
+                ? VirtualThreads.factory("benchmarker-virtual-")
+                : RuntimeSample.accounting(new ThreadFactoryBuilder() // hung threads should not keep the JVM alive
+                .setNameFormat("benchmarker-worker-%d").setDaemon(true).build());
+        return new ThreadPoolExecutor(concurrent, concurrent, 1L, TimeUnit.MINUTES, workQueue, factory, policy);
     }
 
-    private class Task implements Runnable {
+    /** @return runtime without allocation if run on virtual threads, which are not accounted as pool threads are. */
+    private RuntimeSample accounted(RuntimeSample runtime) {
+        return virtual ? runtime.withoutAllocation() : runtime;
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int permits() {
+        if (profile != null && !openLoop) return (int) Math.round(profile.levelAt(-1L));
+        return asyncCallableFactory == null ? concurrent : maxInFlight;
+    }
+
+    /**
+     * @return what a worker pulling calls does for each, on the real path: create it under the lock of its dispatcher
+     *         unless {@link #createOnWorkers()}, call, record and count it, which returns false once the factory is
+     *         exhausted. Calling it on threads concurrently shows contention of workers, e.g. in benchmarks of the
+     *         benchmarker itself.
+     */
+    Callable<Boolean> pullStep() {
+        final Dispatcher.Worker worker = new Dispatcher().new Worker();
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return worker.callOnce();
+            }
+        };
+    }
+
+    /** Takes a permit of outstanding for a call, @return false if the run stopped before one was left. */
+    private boolean permit() throws InterruptedException {
+        while (!outstanding.tryTake(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (exhausted || System.nanoTime() - start >= stopAfter) return false;
+        }
+        return true;
+    }
+
+    private void countDone() {
+        if (firstDone == 0L) firstDone = System.nanoTime(); // racing callers differ by nanos at most
+        progress.countDown();
+    }
+
+    private void measureFrom(long now) {
+        runtimeBaseline = RuntimeSample.now();
+        measureStart = now;
+        if (durationNanos > 0) {
+            stopAfter = now - start + durationNanos;
+            progress.timeFrom(now, durationNanos);
+        }
+        measuring = true;
+        if (sampling != null) sampling.scheduleAtFixedRate(sampler, 0L, samplePeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** @return statistics recorded after baseline, leaving both unchanged. */
+    private static Collection<Statistics> difference(Collection<Statistics> statistics,
+                                                     Collection<Statistics> baseline,
+                                                     boolean keepEmpty) {
+        Map<String, Statistics> earlier = new HashMap<String, Statistics>();
+        for (Statistics s : baseline) earlier.put(s.operation(), s);
+        List<Statistics> result = new ArrayList<Statistics>(statistics.size());
+        for (Statistics s : statistics) {
+            Statistics d = new Statistics(s.operation());
+            d.add(s);
+            Statistics e = earlier.get(s.operation());
+            if (e != null) d.subtract(e);
+            if (keepEmpty || d.latency().count() > 0 || d.errorCount() > 0) result.add(d);
+        }
+        return result;
+    }
+
+    private int operationOf(Object delegate) {
+        if (delegate instanceof Named) return collector.idOf(((Named) delegate).operation());
+        return collector.idOf(delegate.getClass());
+    }
+
+    private static void parkUntil(long deadline) {
+        for (long remain = deadline - System.nanoTime(); remain > 0; remain = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remain);
+        }
+    }
+
+    private class Dispatcher implements Runnable {
+
+        private final AtomicLong claimed = new AtomicLong(); // calls claimed by workers pulling, at most times
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        private Callable<?>[] batch;
+        private int batched;
+        private int taken;
+
+        @Override
+        public void run() {
+            try {
+                if (asyncCallableFactory == null && !openLoop) pull();
+                else dispatch();
+                executorService.shutdown();
+                long deadline = System.nanoTime() + drainNanos;
+                if (!executorService.awaitTermination(drainNanos, TimeUnit.NANOSECONDS)
+                        || !outstanding.drain(deadline - System.nanoTime())) { // async calls may still be in flight
+                    abandon();
+                }
+            } catch (InterruptedException e) {
+                executorService.shutdownNow();
+            } finally {
+                lastDone = System.nanoTime(); // pool terminated and async calls drained, so none is done later
+                progress.finish();
+            }
+        }
 
-        private final Callable<?> delegate;
+        private void abandon() {
+            abandoned = dispatched + claimed.get() - uncreated.get() - progress.done();
+            executorService.shutdownNow();
+            if (watchdog != null) watchdog.timeoutAll();
+            System.err.println(MessageFormat.format("abandoned {0} calls after draining for {1} ms",
+                    abandoned, TimeUnit.NANOSECONDS.toMillis(drainNanos)));
+        }
+
+        private void dispatch() throws InterruptedException {
+            boolean limited = !openLoop || asyncCallableFactory != null;
+            long intended = start;
+            for (int i = 0; i < times && !exhausted && System.nanoTime() - start < stopAfter; i++) {
+                Task task = newTask();
+                if (task == null) return; // factory is exhausted
+                if (openLoop) {
+                    intended = timed ? start + offsetOf(task) : intendedOf(i, intended);
+                    if (intended - start >= stopAfter) return;
+                    task.intended(intended);
+                    parkUntil(intended);
+                }
+                if (limited && !task.acquire()) return; // the run stopped while waiting
+                dispatched++; // only written by the dispatcher
+                executorService.execute(task); // submit would wrap it in a future nobody reads
+            }
+        }
+
+        /** Starts concurrent workers pulling calls, and waits until all calls are claimed, or no more can be. */
+        private void pull() throws InterruptedException {
+            for (int i = 0; i < concurrent; i++) executorService.execute(new Worker());
+            while (!stopped.await(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)
+                    && claimed.get() < times && System.nanoTime() - start < stopAfter) ;
+        }
+
+        /** @return true if a call is claimed, i.e. the run is going on and less than times calls were claimed. */
+        private boolean claim() {
+            while (!exhausted && System.nanoTime() - start < stopAfter) {
+                long count = claimed.get();
+                if (count >= times) break;
+                if (claimed.compareAndSet(count, count + 1)) return true;
+            }
+            stopped.countDown();
+            return false;
+        }
+
+        private Callable<?> create() {
+            if (createOnWorkers) return callableFactory.create();
+            synchronized (this) {
+                return nextCallable();
+            }
+        }
+
+        private long offsetOf(Task task) {
+            Object delegate = task.delegate();
+            if (!(delegate instanceof Timed)) throw new IllegalStateException(delegate + " should be Timed");
+            return ((Timed) delegate).offsetNanos();
+        }
+
+        private long intendedOf(int i, long previous) {
+            if (profile == null) return start + (long) (i * arrivalNanos);
+            if (i == 0) return start;
+            long elapsed = measuring ? previous - measureStart : -1L;
+            double rate = Math.max(MIN_PROFILE_RATE, profile.levelAt(elapsed));
+            return previous + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+        private Task newTask() {
+            if (asyncCallableFactory == null) {
+                if (createOnWorkers) return new SyncTask(null);
+                Callable<?> callable = nextCallable();
+                return callable == null ? null : new SyncTask(callable);
+            }
+            if (createOnWorkers) return new AsyncTask(null);
+            AsyncCallable callable = asyncCallableFactory.create();
+            return callable == null ? null : new AsyncTask(callable);
+        }
+
+        private Callable<?> nextCallable() {
+            if (!(callableFactory instanceof BatchCallableFactory)) return callableFactory.create();
+            if (taken == batched) {
+                if (batch == null) batch = new Callable<?>[Math.min(BATCH_SIZE, times)];
+                batched = Batches.fill(callableFactory, batch, batch.length);
+                taken = 0;
+                if (batched == 0) return null;
+            }
+            Callable<?> callable = batch[taken];
+            batch[taken++] = null;
+            return callable;
+        }
+
+        /** Calls one after another, recording each without a task per call unless the watchdog has to watch it. */
+        private class Worker implements Runnable {
+            @Override
+            public void run() {
+                try {
+                    while (profile == null || permit()) { // a permit first, so claimed calls are all called
+                        try {
+                            if (!claim() || !callOnce()) return;
+                        } finally {
+                            if (profile != null) outstanding.give();
+                        }
+                    }
+                    stopped.countDown(); // while waiting for a permit
+                } catch (InterruptedException e) {
+                    // abandoned after draining
+                }
+            }
+
+            private boolean callOnce() {
+                Callable<?> callable = null;
+                try {
+                    callable = create();
+                } finally {
+                    if (callable == null) { // no call is done, so none is counted
+                        exhausted = true;
+                        uncreated.incrementAndGet();
+                        stopped.countDown();
+                    }
+                }
+                if (callable == null) return false;
+                if (watchdog != null) {
+                    new SyncTask(callable).run();
+                    return true;
+                }
+                int operation = operationOf(callable);
+                long begin = System.nanoTime();
+                try {
+                    callable.call();
+                    collector.elapse(operation, System.nanoTime() - begin);
+                } catch (Exception e) {
+                    collector.error(operation, System.nanoTime() - begin, e);
+                } finally {
+                    countDone();
+                }
+                return true;
+            }
+        }
+    }
+
+    private class FixedWarmup implements Runnable {
+        @Override
+        public void run() {
+            baseline = collector.snapshot();
+            measureFrom(System.nanoTime());
+        }
+    }
 
-        public Task(Callable<?> delegate) {
+    /** Follows the profile: adjusts concurrency of closed-loop runs, and cuts statistics when a stage is passed. */
+    private class ProfileMonitor implements Runnable {
+        private int stage;
+        private Collection<Statistics> cut;
+
+        @Override
+        public void run() {
+            long elapsed = measuring ? System.nanoTime() - measureStart : -1L;
+            if (!openLoop) outstanding.resize((int) Math.round(profile.levelAt(elapsed)));
+            if (!measuring) return;
+            int index = profile.indexAt(elapsed);
+            if (index > stage) cutAt(index, collector.snapshot());
+        }
+
+        /** Only called by the monitor thread, or after it was terminated. */
+        void cutAt(int index, Collection<Statistics> snapshot) {
+            if (cut == null) cut = baseline;
+            if (stage >= index) return;
+            profile.stages().get(stage).statistics(difference(snapshot, cut, false));
+            cut = snapshot;
+            stage = index; // stages skipped in between, if any, had no samples
+        }
+    }
+
+    private class IntervalMonitor implements Runnable {
+        private Collection<Statistics> previous = Collections.emptyList();
+        private RuntimeSample previousRuntime = RuntimeSample.now();
+        private long last = start;
+
+        @Override
+        public void run() {
+            tick(System.nanoTime(), collector.snapshot());
+        }
+
+        /** Only called by the monitor thread, or after it was terminated. */
+        void tick(long now, Collection<Statistics> snapshot) {
+            Collection<Statistics> interval = difference(snapshot, previous, true);
+            RuntimeSample current = RuntimeSample.now();
+            RuntimeSample runtime = accounted(current.minus(previousRuntime));
+            for (IntervalListener listener : intervalListeners) {
+                try {
+                    listener.onInterval(last - start, now - last, interval, runtime);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // a broken listener should neither stop the others nor the next intervals
+                }
+            }
+            previous = snapshot;
+            previousRuntime = current;
+            last = now;
+        }
+    }
+
+    /** Watches calls while they run, to time them out and report those hung. */
+    private class Watchdog implements Runnable {
+        private final Set<Task> running = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+        private final int hungId = collector.idOf(HUNG);
+
+        long period() {
+            long shortest = Math.min(timeoutNanos > 0 ? timeoutNanos : Long.MAX_VALUE,
+                    hungNanos > 0 ? hungNanos : Long.MAX_VALUE);
+            return Math.max(MIN_WATCH_PERIOD_NANOS, shortest / 4);
+        }
+
+        void watch(Task task) {running.add(task);}
+
+        void unwatch(Task task) {running.remove(task);}
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            for (Task task : running) {
+                long outstanding = now - task.begin;
+                if (timeoutNanos > 0 && outstanding >= timeoutNanos) task.timeout(outstanding);
+                if (hungNanos > 0 && outstanding >= hungNanos && !task.reported) report(task, outstanding);
+            }
+        }
+
+        /** Times out every call still running, e.g. once draining took too long. */
+        void timeoutAll() {
+            long now = System.nanoTime();
+            for (Task task : running) task.timeout(now - task.begin);
+        }
+
+        /** A timed out call is still reported if its thread stays blocked, since the thread is lost to the run. */
+        private void report(Task task, long outstanding) {
+            task.reported = true;
+            Thread caller = task.caller();
+            CallTimeoutException e = new CallTimeoutException(MessageFormat.format("{0} running for {1} ms{2}",
+                    collector.nameOf(task.operation), TimeUnit.NANOSECONDS.toMillis(outstanding),
+                    caller == null ? "" : " on " + caller.getName()));
+            if (caller != null) e.setStackTrace(caller.getStackTrace());
+            collector.error(hungId, outstanding, e);
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private class SteadyWarmup implements Runnable {
+        private final SteadyState steadyState = new SteadyState(STEADY_WINDOWS, steadyTolerance);
+        private Histogram previous = new Histogram();
+
+        @Override
+        public void run() {
+            if (measuring) return;
+            Collection<Statistics> snapshot = collector.snapshot();
+            long now = System.nanoTime();
+
+            Histogram total = new Histogram();
+            for (Statistics statistics : snapshot) total.add(statistics.latency());
+            Histogram interval = total.copy();
+            interval.subtract(previous);
+            previous = total;
+
+            boolean steady = steadyState.offer(interval.count(), interval.valueAtPercentile(99));
+            if (!steady && now - start < warmupNanos) return;
+            baseline = snapshot;
+            measureFrom(now);
+        }
+    }
+
+    private abstract class Task implements Runnable {
+
+        volatile int settled; // 1 once the outcome of the call is recorded, by the call or the watchdog
+        volatile long begin;
+        int operation;
+        boolean reported; // only accessed by the watchdog
+
+        private boolean scheduled;
+        private long intended;
+        private boolean permitted;
+
+        /** The call should have started at intended, even if the pool was too busy to run it in time. */
+        void intended(long intended) {
+            this.scheduled = true;
+            this.intended = intended;
+        }
+
+        /** @return false if the run stopped before a permit was left, e.g. at a level of 0 at the end of a profile. */
+        boolean acquire() throws InterruptedException {
+            return permitted = permit();
+        }
+
+        /** Starts the call of delegate, which the watchdog, if any, watches from now on. */
+        protected void begin(Object delegate) {
+            operation = operationOf(delegate);
+            begin = System.nanoTime();
+            if (watchdog != null) watchdog.watch(this);
+        }
+
+        /** @return true if the outcome of the call is to be recorded by the caller, false if it was timed out. */
+        protected boolean settle() {
+            return SETTLED.compareAndSet(this, 0, 1);
+        }
+
+        protected void unwatch() {
+            if (watchdog != null) watchdog.unwatch(this);
+        }
+
+        protected void recordTimeout(long outstanding) {
+            collector.error(operation, outstanding, new CallTimeoutException(MessageFormat.format(
+                    "timed out after {0} ms", TimeUnit.NANOSECONDS.toMillis(outstanding))));
+        }
+
+        /** Called by the watchdog only, to cancel the call outstanding for too long, unless it is settled already. */
+        abstract void timeout(long outstanding);
+
+        /** @return the thread blocked in the call, or null if there is none. */
+        abstract Thread caller();
+
+        /** @return the callable, or null until it is created on the worker. */
+        abstract Object delegate();
+
+        protected void elapse(int operation, long begin, long end) {
+            if (scheduled) collector.elapse(operation, end - begin, end - intended);
+            else collector.elapse(operation, end - begin);
+        }
+
+        protected void done() {
+            if (permitted) outstanding.give();
+            countDone();
+        }
+
+        /** Stops the run once a factory creating on workers is exhausted, or fails. */
+        protected void exhausted() {
+            exhausted = true;
+            uncreated.incrementAndGet();
+            if (permitted) outstanding.give(); // no call is done, so none is counted
+        }
+    }
+
+    private class SyncTask extends Task {
+
+        private Callable<?> delegate; // null until created on the worker
+        private volatile Thread caller;
+        private boolean interrupted; // guarded by this
+
+        public SyncTask(Callable<?> delegate) {
             this.delegate = delegate;
         }
 
         @Override
         public void run() {
-            Stopwatch stopwatch = new Stopwatch().start();
-            String name = delegate.getClass().getName();
+            if (delegate == null && (delegate = create()) == null) return;
+            caller = Thread.currentThread();
+            begin(delegate);
             try {
                 delegate.call();
-                collector.elapse(name, stopwatch.elapsedMillis());
+                long end = System.nanoTime();
+                if (settle()) elapse(operation, begin, end);
             } catch (Exception e) {
-                collector.error(name, e);
+                long end = System.nanoTime();
+                if (settle()) collector.error(operation, end - begin, e);
             } finally {
-                progress.countDown();
+                unwatch();
+                returned();
+                done();
+            }
+        }
+
+        @Override
+        void timeout(long outstanding) {
+            synchronized (this) {
+                if (!settle()) return;
+                Thread thread = caller;
+                if (thread != null) thread.interrupt();
+                interrupted = true;
+            }
+            recordTimeout(outstanding);
+        }
+
+        @Override
+        Thread caller() {return caller;}
+
+        @Override
+        Object delegate() {return delegate;}
+
+        /** Clears the interrupt of a timed out call, so it does not leak into the next call on this thread. */
+        private void returned() {
+            boolean clear;
+            synchronized (this) { // waits for the watchdog to interrupt, if it is timing the call out
+                caller = null;
+                clear = interrupted;
+            }
+            if (clear) Thread.interrupted();
+        }
+
+        private Callable<?> create() {
+            Callable<?> callable = null;
+            try {
+                return callable = callableFactory.create();
+            } finally {
+                if (callable == null) exhausted();
+            }
+        }
+    }
+
+    /** An {@link AsyncTask} is its own completion callback, so it records the call wherever the stage completes. */
+    private class AsyncTask extends Task implements BiConsumer<Object, Throwable> {
+
+        private AsyncCallable delegate; // null until created on the worker
+        private volatile CompletionStage<?> stage;
+
+        public AsyncTask(AsyncCallable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            if (delegate == null && (delegate = create()) == null) return;
+            begin(delegate);
+            try {
+                stage = delegate.call();
+                stage.whenComplete(this);
+            } catch (Exception e) {
+                accept(null, e);
+            }
+        }
+
+        @Override
+        void timeout(long outstanding) {
+            if (!settle()) return;
+            unwatch();
+            try {
+                recordTimeout(outstanding);
+                CompletionStage<?> stage = this.stage;
+                if (stage instanceof Future) ((Future<?>) stage).cancel(true);
+            } finally {
+                done();
+            }
+        }
+
+        @Override
+        Thread caller() {return null;}
+
+        @Override
+        Object delegate() {return delegate;}
+
+        @Override
+        public void accept(Object result, Throwable t) {
+            long end = System.nanoTime();
+            if (!settle()) return; // timed out already
+            unwatch();
+            try {
+                if (t == null) elapse(operation, begin, end);
+                else collector.error(operation, end - begin, t instanceof CompletionException ? t.getCause() : t);
+            } finally {
+                done();
+            }
+        }
+
+        private AsyncCallable create() {
+            AsyncCallable callable = null;
+            try {
+                return callable = asyncCallableFactory.create();
+            } finally {
+                if (callable == null) exhausted();
+            }
+        }
+    }
+
+    /**
+     * A {@link Semaphore} whose number of permits can be changed while threads hold them, which counts permits held by
+     * calls apart, since the number of permits is no bound of them once reduced, e.g. to 0 at the end of a profile.
+     */
+    private static final class Permits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private int size;
+        private int held; // guarded by this
+
+        Permits(int size) {
+            super(size);
+            this.size = size;
+        }
+
+        synchronized void resize(int newSize) {
+            if (newSize > size) release(newSize - size);
+            else reducePermits(size - newSize);
+            size = newSize;
+        }
+
+        /** Acquires a permit for a call within timeout, to {@link #give()} back once it is done, if it returns true. */
+        boolean tryTake(long timeout, TimeUnit unit) throws InterruptedException {
+            if (!tryAcquire(timeout, unit)) return false;
+            synchronized (this) {
+                held++;
+            }
+            return true;
+        }
+
+        void give() {
+            synchronized (this) {
+                if (--held == 0) notifyAll();
+            }
+            release();
+        }
+
+        /** Waits at most timeoutNanos until all permits taken are given back, @return false if some are still held. */
+        synchronized boolean drain(long timeoutNanos) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            for (long remain = timeoutNanos; held > 0; remain = deadline - System.nanoTime()) {
+                if (remain <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(this, remain);
             }
+            return true;
         }
     }
 }
@@ -0,0 +1,24 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link CallTimeoutException} is recorded by the {@link Benchmarker} for a call outstanding past its timeout, or one
+ * reported hung. It has no stack trace of its own, since it is thrown nowhere, but a hung call carries the stack of
+ * the thread blocked in it.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public class CallTimeoutException extends TimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CallTimeoutException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CapacitySearch} finds the highest rate a target sustains within an SLO, e.g. p99 under 20 ms with less than
+ * 0.1% errors, by short open-loop {@link Trial}s:
+ * <pre>
+ * Trial best = new CapacitySearch(factory, 64)
+ *         .slo(99, 20, MILLISECONDS).maxErrorRate(0.001)
+ *         .trial(2, SECONDS, 10, SECONDS)
+ *         .search();
+ * </pre>
+ * Starting from a rate, it doubles the rate until a trial fails, or halves it until one passes, then bisects between
+ * the highest passing rate and the lowest failing one until they are within the precision of each other. Latency is
+ * measured from the intended start of calls, so a rate the target can't keep up with fails by the queueing it causes.
+ * <p/>
+ * The factory is shared by all trials, so it should create callables as long as asked for.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class CapacitySearch {
+
+    private final CallableFactory callableFactory;
+    private final AsyncCallableFactory asyncCallableFactory;
+    private final int concurrent;
+    private final List<Trial> trials = new ArrayList<Trial>();
+
+    private double percentile = 99;
+    private long limitNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private double maxErrorRate = 0.001;
+    private long warmupNanos = TimeUnit.SECONDS.toNanos(1); // a cold first trial would fail a low rate
+    private long durationNanos = TimeUnit.SECONDS.toNanos(10);
+    private double initialRate = 100;
+    private double minRate = 1;
+    private double maxRate = 1e6;
+    private double precision = 0.05;
+    private int maxTrials = 20;
+
+    /** @param concurrent threads to run calls on, enough to keep up with the highest rate tried. */
+    public CapacitySearch(CallableFactory callableFactory, int concurrent) {
+        this(callableFactory, null, concurrent);
+    }
+
+    /** @param concurrent calls in flight at most, enough to keep up with the highest rate tried. */
+    public CapacitySearch(AsyncCallableFactory asyncCallableFactory, int concurrent) {
+        this(null, asyncCallableFactory, concurrent);
+    }
+
+    private CapacitySearch(CallableFactory callableFactory, AsyncCallableFactory asyncCallableFactory,
+                           int concurrent) {
+        if (concurrent <= 0) throw new IllegalArgumentException("concurrent should be positive: " + concurrent);
+        this.callableFactory = callableFactory;
+        this.asyncCallableFactory = asyncCallableFactory;
+        this.concurrent = concurrent;
+    }
+
+    /** Requires percentile of latency, e.g. 99, to be at most limit, p99 within 20 ms by default. */
+    public CapacitySearch slo(double percentile, long limit, TimeUnit unit) {
+        if (percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile should be in (0, 100]: " + percentile);
+        if (limit <= 0) throw new IllegalArgumentException("limit should be positive: " + limit);
+        this.percentile = percentile;
+        this.limitNanos = unit.toNanos(limit);
+        return this;
+    }
+
+    /** Requires failed calls to be at most rate of all, e.g. 0.001 for 0.1% which is the default. */
+    public CapacitySearch maxErrorRate(double rate) {
+        if (rate < 0 || rate > 1) throw new IllegalArgumentException("error rate should be in [0, 1]: " + rate);
+        maxErrorRate = rate;
+        return this;
+    }
+
+    /** Runs each trial for duration after warming up, 10 seconds after 1 second by default. */
+    public CapacitySearch trial(long warmup, TimeUnit warmupUnit, long duration, TimeUnit durationUnit) {
+        if (warmup < 0) throw new IllegalArgumentException("warm-up should not be negative: " + warmup);
+        if (duration <= 0) throw new IllegalArgumentException("duration should be positive: " + duration);
+        warmupNanos = warmupUnit.toNanos(warmup);
+        durationNanos = durationUnit.toNanos(duration);
+        return this;
+    }
+
+    /** Searches between min and max calls per second, starting from initial, 100 in [1, 1e6] by default. */
+    public CapacitySearch rates(double initial, double min, double max) {
+        if (!(min > 0) || initial < min || max < initial)
+            throw new IllegalArgumentException("rates should be 0 < min <= initial <= max: " + initial);
+        initialRate = initial;
+        minRate = min;
+        maxRate = max;
+        return this;
+    }
+
+    /**
+     * Stops bisecting once the lowest failing rate is within precision (e.g. 0.05 for 5%, the default) of the highest
+     * passing one, or after maxTrials trials in all, 20 by default.
+     */
+    public CapacitySearch precision(double precision, int maxTrials) {
+        if (!(precision > 0)) throw new IllegalArgumentException("precision should be positive: " + precision);
+        if (maxTrials <= 0) throw new IllegalArgumentException("max trials should be positive: " + maxTrials);
+        this.precision = precision;
+        this.maxTrials = maxTrials;
+        return this;
+    }
+
+    /** @return the passing trial of the highest rate, or null if even the min rate failed. */
+    public Trial search() throws InterruptedException {
+        trials.clear();
+        Trial best = null, worst = null; // the highest passing, and the lowest failing
+        for (double rate = initialRate; trials.size() < maxTrials; ) {
+            Trial trial = run(rate);
+            if (trial.passed()) {
+                best = trial;
+                if (worst != null || rate >= maxRate) break;
+                rate = Math.min(maxRate, rate * 2);
+            } else {
+                worst = trial;
+                if (best != null || rate <= minRate) break;
+                rate = Math.max(minRate, rate / 2);
+            }
+        }
+        while (best != null && worst != null && worst.rate() > best.rate() * (1 + precision)
+                && trials.size() < maxTrials) {
+            Trial trial = run((best.rate() + worst.rate()) / 2);
+            if (trial.passed()) best = trial;
+            else worst = trial;
+        }
+        return best;
+    }
+
+    /** @return trials of the last search in the order they ran. */
+    public List<Trial> trials() {return Collections.unmodifiableList(trials);}
+
+    private Trial run(double rate) throws InterruptedException {
+        Benchmarker benchmarker = callableFactory != null
+                ? new Benchmarker(callableFactory, concurrent)
+                : new Benchmarker(asyncCallableFactory, concurrent);
+        benchmarker.rate(rate).duration(durationNanos, TimeUnit.NANOSECONDS);
+        if (warmupNanos > 0) benchmarker.warmup(warmupNanos, TimeUnit.NANOSECONDS);
+        Collection<Statistics> statistics = benchmarker.benchmark();
+        Trial trial = Trial.of(rate, statistics, benchmarker.measuredNanos(), percentile, limitNanos, maxErrorRate);
+        trials.add(trial);
+        return trial;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Trial trial : trials) sb.append(sb.length() == 0 ? "" : "\n").append(trial);
+        return sb.toString();
+    }
+}
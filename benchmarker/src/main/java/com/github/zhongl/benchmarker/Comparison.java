@@ -0,0 +1,130 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Comparison} of current {@link Results} with a baseline flags operations whose throughput dropped, or whose
+ * latency grew, both significantly and by more than a tolerance, so noise and negligible changes are not reported.
+ * <p/>
+ * Throughput is compared as a Poisson rate, latency with a Mann-Whitney U test over the histograms. Both assume calls
+ * are independent, which calls of a run under load rarely are, so the tolerance is what keeps false alarms down.
+ * <p/>
+ * Usage: <code>java com.github.zhongl.benchmarker.Comparison &lt;baseline&gt; &lt;current&gt; [tolerance]</code>,
+ * which exits with status 1 on regressions.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Comparison {
+
+    public static final double DEFAULT_TOLERANCE = 0.05;
+
+    private static final double Z_99 = 2.576; // two-sided 99% confidence
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<String> lines = new ArrayList<String>();
+    private final List<String> regressions = new ArrayList<String>();
+
+    public Comparison(Results baseline, Results current) {this(baseline, current, DEFAULT_TOLERANCE);}
+
+    public Comparison(Results baseline, Results current, double tolerance) {
+        if (tolerance < 0) throw new IllegalArgumentException("tolerance should not be negative: " + tolerance);
+        for (Statistics before : baseline.statistics()) {
+            String operation = before.operation();
+            Statistics after = current.statistics(operation);
+            if (after == null) {
+                regress(operation + "\t: missing in current results");
+                continue;
+            }
+            compareThroughput(operation, baseline, current, tolerance);
+            compareLatency(operation, before.latency(), after.latency(), tolerance);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) throw new IllegalArgumentException("Usage: CMD <baseline> <current> [tolerance]");
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        Comparison comparison = new Comparison(Results.load(new File(args[0])), Results.load(new File(args[1])),
+                tolerance);
+        System.out.println(comparison);
+        if (!comparison.regressions().isEmpty()) System.exit(1);
+    }
+
+    public List<String> regressions() {return Collections.unmodifiableList(regressions);}
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) sb.append(line).append('\n');
+        sb.append(regressions.size()).append(" regression(s)");
+        return sb.toString();
+    }
+
+    private void compareThroughput(String operation, Results baseline, Results current, double tolerance) {
+        double before = baseline.throughput(operation);
+        double after = current.throughput(operation);
+        // a rate of Poisson counts over seconds has a variance of rate / seconds
+        double variance = before / seconds(baseline) + after / seconds(current);
+        double z = variance == 0 ? 0 : (after - before) / Math.sqrt(variance);
+        String line = MessageFormat.format("{0}\t: throughput {1,number,#.##} -> {2,number,#.##} /s ({3}, z={4})",
+                operation, before, after, change(before, after), format(z));
+        if (z < -Z_99 && after < before * (1 - tolerance)) regress(line);
+        else lines.add(line);
+    }
+
+    private void compareLatency(String operation, Histogram before, Histogram after, double tolerance) {
+        double z = mannWhitneyZ(before, after);
+        long p50 = before.valueAtPercentile(50), p99 = before.valueAtPercentile(99);
+        long p50After = after.valueAtPercentile(50), p99After = after.valueAtPercentile(99);
+        String line = MessageFormat.format("{0}\t: p50 {1} -> {2} ({3}), p99 {4} -> {5} ({6}) ms, z={7}",
+                operation, millis(p50), millis(p50After), change(p50, p50After),
+                millis(p99), millis(p99After), change(p99, p99After), format(z));
+        boolean worse = p50After > p50 * (1 + tolerance) || p99After > p99 * (1 + tolerance);
+        if (z > Z_99 && worse) regress(line);
+        else lines.add(line);
+    }
+
+    private void regress(String line) {
+        lines.add(line + " REGRESSION");
+        regressions.add(line);
+    }
+
+    /** @return z score of after being larger than before, corrected for ties of values in the same bucket. */
+    static double mannWhitneyZ(Histogram before, Histogram after) {
+        double n1 = before.count(), n2 = after.count(), n = n1 + n2;
+        if (n1 == 0 || n2 == 0) return 0;
+        double u = 0, ties = 0, below = 0; // u counts pairs where after is larger, ties as half
+        for (int i = 0; i < before.buckets(); i++) {
+            double b = before.countAt(i), a = after.countAt(i);
+            if (a == 0 && b == 0) continue;
+            u += a * (below + b / 2);
+            below += b;
+            double t = a + b;
+            ties += t * t * t - t;
+        }
+        double variance = n1 * n2 / 12 * ((n + 1) - ties / (n * (n - 1)));
+        return variance <= 0 ? 0 : (u - n1 * n2 / 2) / Math.sqrt(variance);
+    }
+
+    private static double seconds(Results results) {
+        return results.elapsedNanos() / NANOS_PER_SECOND;
+    }
+
+    private static String change(double before, double after) {
+        if (before == 0) return "n/a";
+        return MessageFormat.format("{0,number,+#.#%;-#.#%}", (after - before) / before);
+    }
+
+    private static String format(double z) {
+        return MessageFormat.format("{0,number,#.##}", z);
+    }
+
+    private static String millis(long nanos) {
+        return MessageFormat.format("{0,number,#.###}", nanos / NANOS_PER_MILLI);
+    }
+}
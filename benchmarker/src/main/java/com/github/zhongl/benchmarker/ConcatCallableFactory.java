@@ -1,24 +1,39 @@
 package com.github.zhongl.benchmarker;
 
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
-@NotThreadSafe
-public class ConcatCallableFactory implements CallableFactory {
+/**
+ * {@link ConcatCallableFactory} creates callables of each factory in turn, until it is exhausted. It is thread safe if
+ * its factories are.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@ThreadSafe
+public class ConcatCallableFactory implements BatchCallableFactory {
     private final CallableFactory[] factories;
-    private int index;
+    private final AtomicInteger index = new AtomicInteger();
 
     public ConcatCallableFactory(CallableFactory... factories) {this.factories = factories;}
 
     @Override
     public Callable<?> create() {
-        if (index < factories.length) {
-            Callable<?> callable = factories[index].create();
+        for (int i = index.get(); i < factories.length; i = index.get()) {
+            Callable<?> callable = factories[i].create();
             if (callable != null) return callable;
-            index += 1;
-            return create();
+            index.compareAndSet(i, i + 1); // others may have found it exhausted too
         }
         return null;
     }
+
+    @Override
+    public int create(Callable<?>[] batch, int max) {
+        for (int i = index.get(); i < factories.length; i = index.get()) {
+            int created = Batches.fill(factories[i], batch, max);
+            if (created > 0) return created;
+            index.compareAndSet(i, i + 1);
+        }
+        return 0;
+    }
 }
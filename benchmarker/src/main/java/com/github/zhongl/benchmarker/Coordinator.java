@@ -0,0 +1,121 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Coordinator} runs the same {@link Scenario} on a group of {@link Agent}s at once, and merges their statistics.
+ * <p/>
+ * All agents first set up the scenario, and none starts before every one is ready, so their runs overlap as much as
+ * the network allows.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Coordinator {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
+    private final List<InetSocketAddress> agents;
+    private int replyTimeoutMillis = (int) TimeUnit.HOURS.toMillis(1);
+
+    public Coordinator(List<InetSocketAddress> agents) {
+        if (agents.isEmpty()) throw new IllegalArgumentException("agents should not be empty");
+        this.agents = agents;
+    }
+
+    /**
+     * Fails a run if an agent replies nothing for timeout, 1 hour by default, so a hung agent can not block the run
+     * forever. It should outlast setting a scenario up and running it, during which agents send nothing.
+     */
+    public Coordinator replyTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout should be positive: " + timeout);
+        replyTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout));
+        return this;
+    }
+
+    public Collection<Statistics> run(Class<? extends Scenario> scenario, Map<String, String> parameters)
+            throws IOException {
+        return run(scenario.getName(), parameters);
+    }
+
+    public Collection<Statistics> run(String scenario, Map<String, String> parameters) throws IOException {
+        List<Connection> connections = new ArrayList<Connection>(agents.size());
+        try {
+            for (InetSocketAddress agent : agents) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(agent, CONNECT_TIMEOUT_MILLIS);
+                    socket.setSoTimeout(replyTimeoutMillis);
+                    connections.add(new Connection(socket));
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+            }
+
+            for (Connection connection : connections) {
+                DataOutputStream out = connection.out;
+                out.writeInt(Agent.MAGIC);
+                out.writeUTF(scenario);
+                out.writeInt(parameters.size());
+                for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+                out.flush();
+            }
+
+            for (Connection connection : connections) connection.expect(Agent.READY);
+
+            for (Connection connection : connections) {
+                connection.out.writeByte(Agent.GO);
+                connection.out.flush();
+            }
+
+            Map<String, Statistics> merged = new TreeMap<String, Statistics>();
+            for (Connection connection : connections) {
+                DataInputStream in = connection.expect(Agent.RESULT);
+                for (int i = in.readInt(); i > 0; i--) {
+                    Statistics statistics = Statistics.readFrom(in);
+                    Statistics existed = merged.get(statistics.operation());
+                    if (existed == null) merged.put(statistics.operation(), statistics);
+                    else existed.add(statistics);
+                }
+            }
+            return merged.values();
+        } finally {
+            for (Connection connection : connections) connection.socket.close(); // agents waiting for GO abort on close
+        }
+    }
+
+    /** {@link Connection} to an agent, with streams buffering for the whole session. */
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        DataInputStream expect(byte reply) throws IOException {
+            byte actual;
+            try {
+                actual = in.readByte();
+            } catch (SocketTimeoutException e) {
+                throw new IOException("no reply from agent " + socket.getRemoteSocketAddress() + " in time", e);
+            }
+            if (actual == Agent.FAILED)
+                throw new IOException("agent " + socket.getRemoteSocketAddress() + " failed: " + in.readUTF());
+            if (actual != reply)
+                throw new IOException("unexpected reply " + actual + " from " + socket.getRemoteSocketAddress());
+            return in;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.github.zhongl.benchmarker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link DataFeeder} feeds parameters of calls, e.g. keys and payloads, from records of a memory-mapped file, either
+ * lines of a CSV file or length-prefixed binary records written by {@link #writer(File)}:
+ * <pre>
+ * final DataFeeder.Feed users = DataFeeder.csv(new File("users.csv"), true).random(seed);
+ * CallableFactory factory = new CallableFactory() {
+ *     public Callable&lt;?&gt; create() {
+ *         final long id = users.next().longField(0);
+ *         ...
+ *     }
+ * };
+ * </pre>
+ * A {@link Feed} gives each thread a cursor of its own, going through the records in order, at random, or handing each
+ * record out once only. The {@link Record} it returns is a view into the mapping reused by the thread, so getting
+ * parameters copies nothing and allocates nothing. Only the offsets of records are kept, off the heap.
+ * <p/>
+ * CSV fields are separated by commas without quoting, and chars of a record are its bytes, i.e. ASCII or Latin-1.
+ * Blank lines are skipped.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@ThreadSafe
+public final class DataFeeder implements Closeable {
+
+    static final int MAGIC = 0x424d4b44; // BMKD
+    static final short VERSION = 1;
+
+    private static final int HEADER = 6; // magic and version
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int UNIQUE_BLOCK = 64; // records a thread claims at a time
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L; // spreads starts of sequential cursors
+
+    private final RandomAccessFile file;
+    private final long size;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final MappedByteBuffer[] segments;
+    private final boolean csv;
+    private final LongBuffer index; // offsets of records, of payloads for binary ones
+    private final int count;
+
+    /** @param header true if the first line holds names of the columns, which is skipped. */
+    public static DataFeeder csv(File file, boolean header) throws IOException {
+        return new DataFeeder(file, true, header, SEGMENT_SHIFT);
+    }
+
+    public static DataFeeder binary(File file) throws IOException {
+        return new DataFeeder(file, false, false, SEGMENT_SHIFT);
+    }
+
+    /** @return a writer of a new binary file to feed from. */
+    public static Writer writer(File file) throws IOException {
+        return new Writer(file);
+    }
+
+    /** @param segmentShift of the size of segments mapped, e.g. 30 for 1 GB each. */
+    DataFeeder(File file, boolean csv, boolean header, int segmentShift) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.csv = csv;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        try {
+            FileChannel channel = this.file.getChannel();
+            size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + segmentMask) >>> segmentShift)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(segmentMask + 1, size - from));
+            }
+            long start = 0L;
+            if (!csv) {
+                if (size < HEADER || intAt(0L) != MAGIC) throw new IOException(file + " is not a data file");
+                short version = (short) ((byteAt(4L) & 0xff) << 8 | byteAt(5L) & 0xff);
+                if (version > VERSION) throw new IOException(file + " has unsupported version " + version);
+                start = HEADER;
+            } else if (header) {
+                start = endOfLine(0L) + 1;
+            }
+            long records = scan(start, null);
+            if (records > Integer.MAX_VALUE / 8) throw new IOException(file + " has too many records: " + records);
+            count = (int) records;
+            index = ByteBuffer.allocateDirect(count * 8).asLongBuffer();
+            scan(start, index);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /** @return number of records. */
+    public int count() {return count;}
+
+    /** Each thread goes through all records in order, round and round, from a start of its own. */
+    public Feed sequential() {return new Feed(Feed.SEQUENTIAL, 0L);}
+
+    /**
+     * Each thread picks records at random, from a stream of its own split from one seeded by seed in the order the
+     * threads first came in.
+     */
+    public Feed random(long seed) {return new Feed(Feed.RANDOM, seed);}
+
+    /** Each record is handed out once only, to whichever thread comes first, and then the feed is exhausted. */
+    public Feed unique() {return new Feed(Feed.UNIQUE, 0L);}
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    byte byteAt(long position) {
+        return segments[(int) (position >>> segmentShift)].get((int) (position & segmentMask));
+    }
+
+    private int intAt(long position) {
+        return (byteAt(position) & 0xff) << 24 | (byteAt(position + 1) & 0xff) << 16
+                | (byteAt(position + 2) & 0xff) << 8 | byteAt(position + 3) & 0xff;
+    }
+
+    /** @return position of the line feed ending the line from position, or size if there is none. */
+    private long endOfLine(long position) {
+        while (position < size && byteAt(position) != '\n') position++;
+        return position;
+    }
+
+    /** @return number of records from start, whose offsets are put into index unless it is null. */
+    private long scan(long start, LongBuffer index) throws IOException {
+        long records = 0;
+        for (long position = start; position < size; records++) {
+            if (csv) {
+                long end = endOfLine(position);
+                if (end == position || end == position + 1 && byteAt(position) == '\r') { // blank
+                    position = end + 1;
+                    records--;
+                    continue;
+                }
+                if (index != null) index.put(position);
+                position = end + 1;
+            } else {
+                if (position + 4 > size) throw new IOException("truncated record at " + position);
+                int length = intAt(position);
+                if (length < 0 || position + 4 + length > size)
+                    throw new IOException("truncated record at " + position);
+                if (index != null) index.put(position + 4);
+                position += 4 + length;
+            }
+        }
+        return records;
+    }
+
+    /** Positions record at the i-th record. */
+    private void moveTo(Record record, int i) {
+        long offset = index.get(i);
+        int length;
+        if (csv) {
+            long end = endOfLine(offset);
+            if (end > offset && byteAt(end - 1) == '\r') end--;
+            length = (int) (end - offset);
+        } else {
+            length = intAt(offset - 4);
+        }
+        record.moveTo(i, offset, length, csv);
+    }
+
+    /** Hands out records to threads, each with a cursor of its own. */
+    @ThreadSafe
+    public final class Feed {
+        static final int SEQUENTIAL = 0, RANDOM = 1, UNIQUE = 2;
+
+        private final int mode;
+        private final SplittableRandom root; // guarded by itself
+        private final AtomicInteger threads = new AtomicInteger();
+        private final AtomicLong claimed = new AtomicLong();
+        private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+            @Override
+            protected Cursor initialValue() {
+                return new Cursor(threads.getAndIncrement());
+            }
+        };
+
+        private Feed(int mode, long seed) {
+            this.mode = mode;
+            this.root = mode == RANDOM ? new SplittableRandom(seed) : null;
+        }
+
+        /** @return the next record of the calling thread, only valid until its next call, or null if exhausted. */
+        public Record next() {
+            Cursor cursor = cursors.get();
+            int i = cursor.next();
+            if (i < 0) return null;
+            moveTo(cursor.record, i);
+            return cursor.record;
+        }
+
+        private final class Cursor {
+            final Record record = new Record(DataFeeder.this);
+            final SplittableRandom random;
+            int next;
+            int last; // of the block claimed, exclusive
+
+            Cursor(int thread) {
+                random = mode == RANDOM ? split() : null;
+                if (mode == SEQUENTIAL && count > 0) next = (int) Math.floorMod(thread * GOLDEN_GAMMA, (long) count);
+            }
+
+            private SplittableRandom split() {
+                synchronized (root) {
+                    return root.split();
+                }
+            }
+
+            int next() {
+                if (count == 0) return -1;
+                switch (mode) {
+                    case SEQUENTIAL:
+                        int i = next;
+                        next = i + 1 == count ? 0 : i + 1;
+                        return i;
+                    case RANDOM:
+                        return random.nextInt(count);
+                    default:
+                        if (next == last) {
+                            long from = claimed.getAndAdd(UNIQUE_BLOCK);
+                            if (from >= count) return -1;
+                            next = (int) from;
+                            last = (int) Math.min(count, from + UNIQUE_BLOCK);
+                        }
+                        return next++;
+                }
+            }
+        }
+    }
+
+    /** Bytes of a part of the file, read in place. */
+    abstract static class View implements CharSequence {
+        final DataFeeder feeder;
+        long offset;
+        int length;
+
+        View(DataFeeder feeder) {this.feeder = feeder;}
+
+        @Override
+        public int length() {return length;}
+
+        public byte byteAt(int i) {
+            if (i < 0 || i >= length) throw new IndexOutOfBoundsException(String.valueOf(i));
+            return feeder.byteAt(offset + i);
+        }
+
+        @Override
+        public char charAt(int i) {return (char) (byteAt(i) & 0xff);}
+
+        /** Allocates a copy, like {@link #toString()}. */
+        @Override
+        public CharSequence subSequence(int start, int end) {return toString().subSequence(start, end);}
+
+        /** Copies the bytes into dst from at. */
+        public void copyTo(byte[] dst, int at) {
+            for (int i = 0; i < length; i++) dst[at + i] = feeder.byteAt(offset + i);
+        }
+
+        /** @return the value as a decimal long, parsed in place and rejected like {@link Long#parseLong(String)}. */
+        public long toLong() {
+            boolean negative = length > 0 && charAt(0) == '-';
+            int from = negative ? 1 : 0;
+            if (length == from) throw new NumberFormatException("no digits: " + toString());
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long value = 0; // accumulated negatively, as the range of negative values is the wider one
+            for (int i = from; i < length; i++) {
+                int digit = charAt(i) - '0';
+                if (digit < 0 || digit > 9 || value < limit / 10) throw new NumberFormatException(toString());
+                value *= 10;
+                if (value < limit + digit) throw new NumberFormatException(toString());
+                value -= digit;
+            }
+            return negative ? value : -value;
+        }
+
+        /** Allocates a string of the chars, i.e. the bytes decoded as Latin-1. */
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            copyTo(bytes, 0);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /** A record of the file, which is a line of a CSV file without its line break. */
+    @NotThreadSafe
+    public static final class Record extends View {
+        private int index;
+        private int fields;
+        private Field[] views = new Field[4];
+
+        Record(DataFeeder feeder) {super(feeder);}
+
+        /** @return the order of the record in the file, from 0. */
+        public int index() {return index;}
+
+        /** @return number of comma separated fields of a CSV record, 1 of a binary one. */
+        public int fields() {return fields;}
+
+        /** @return i-th field, a view reused by the record until it moves to the next one. */
+        public CharSequence field(int i) {
+            if (i < 0 || i >= fields) throw new IndexOutOfBoundsException(String.valueOf(i));
+            return views[i];
+        }
+
+        /** @return i-th field parsed as a decimal long. */
+        public long longField(int i) {
+            if (i < 0 || i >= fields) throw new IndexOutOfBoundsException(String.valueOf(i));
+            return views[i].toLong();
+        }
+
+        void moveTo(int index, long offset, int length, boolean csv) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+            fields = 0;
+            int from = 0;
+            for (int i = 0; csv && i < length; i++) {
+                if (feeder.byteAt(offset + i) != ',') continue;
+                field(from, i);
+                from = i + 1;
+            }
+            field(from, length);
+        }
+
+        private void field(int from, int to) {
+            if (fields == views.length) {
+                Field[] grown = new Field[views.length * 2];
+                System.arraycopy(views, 0, grown, 0, views.length);
+                views = grown;
+            }
+            Field field = views[fields];
+            if (field == null) views[fields] = field = new Field(feeder);
+            field.offset = offset + from;
+            field.length = to - from;
+            fields++;
+        }
+    }
+
+    /** A field of a {@link Record}. */
+    @NotThreadSafe
+    public static final class Field extends View {
+        Field(DataFeeder feeder) {super(feeder);}
+    }
+
+    /** Appends records to a binary data file. */
+    @NotThreadSafe
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        private Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+        }
+
+        public Writer append(byte[] record) throws IOException {
+            return append(record, 0, record.length);
+        }
+
+        public Writer append(byte[] record, int offset, int length) throws IOException {
+            out.writeInt(length);
+            out.write(record, offset, length);
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
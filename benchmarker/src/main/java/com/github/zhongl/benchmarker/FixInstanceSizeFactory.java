@@ -6,7 +6,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
 @ThreadSafe
-public final class FixInstanceSizeFactory implements CallableFactory {
+public final class FixInstanceSizeFactory implements BatchCallableFactory {
 
     private final AtomicInteger count;
     private final CallableFactory delegate;
@@ -19,6 +19,21 @@ public final class FixInstanceSizeFactory implements CallableFactory {
 
     @Override
     public Callable<?> create() {
-        return count.decrementAndGet() < 0 ? null : delegate.create();
+        return reserve(1) == 0 ? null : delegate.create();
+    }
+
+    @Override
+    public int create(Callable<?>[] batch, int max) {
+        return Batches.fill(delegate, batch, reserve(max));
+    }
+
+    /** Never goes below zero, so it can't overflow however often it is asked once exhausted. */
+    private int reserve(int size) {
+        for (; ; ) {
+            int left = count.get();
+            if (left == 0) return 0;
+            int reserved = Math.min(left, size);
+            if (count.compareAndSet(left, left - reserved)) return reserved;
+        }
     }
 }
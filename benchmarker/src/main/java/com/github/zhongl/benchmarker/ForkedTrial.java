@@ -0,0 +1,254 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.*;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link ForkedTrial} runs a {@link Scenario} in a freshly forked JVM, so neither JIT profiles nor heap left by
+ * earlier runs in this JVM skew it, and reads its statistics back over the pipe of its standard output:
+ * <pre>
+ * ForkedTrial.Outcome outcome = new ForkedTrial(MyScenario.class)
+ *         .jvmOptions("-Xmx1g", "-XX:+UseParallelGC").parameter("key", "value")
+ *         .steadyState(0.1, 1, MINUTES)
+ *         .run();
+ * </pre>
+ * Besides the statistics, the outcome tells how long the JVM took from the fork to its main method, to the completion
+ * of its first call, i.e. including the latency of that call, and, with {@link #steadyState(double, long, TimeUnit)},
+ * to a steady state, so startup can be benchmarked too.
+ * <p/>
+ * A forked JVM running longer than the {@link #timeout(long, TimeUnit)} is killed, and the trial fails.
+ * <p/>
+ * The forked JVM writes to its standard error what it would to its standard output, which is inherited as well.
+ * <p/>
+ * The protocol from the forked JVM is:
+ * <pre>
+ * MAGIC, once its main method is entered
+ * RESULT with startup times and statistics, or FAILED with a message
+ * </pre>
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class ForkedTrial {
+
+    static final int MAGIC = 0x424d4b46; // BMKF
+    static final byte RESULT = 1;
+    static final byte FAILED = 2;
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String scenario;
+    private final List<String> jvmOptions = new ArrayList<String>();
+    private final Map<String, String> parameters = new LinkedHashMap<String, String>();
+    private String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    private String classpath = System.getProperty("java.class.path");
+    private double steadyTolerance; // 0 means the scenario warms up as it sets
+    private long steadyMaxNanos;
+    private long timeoutNanos = TimeUnit.HOURS.toNanos(1);
+
+    public ForkedTrial(Class<? extends Scenario> scenario) {this(scenario.getName());}
+
+    /** @param scenario class name, which should be on the class path of the forked JVM. */
+    public ForkedTrial(String scenario) {this.scenario = scenario;}
+
+    /** Adds options of the forked JVM, e.g. "-Xmx1g". */
+    public ForkedTrial jvmOptions(String... options) {
+        jvmOptions.addAll(Arrays.asList(options));
+        return this;
+    }
+
+    /** Sets a parameter passed to {@link Scenario#create(Map)}. */
+    public ForkedTrial parameter(String key, String value) {
+        if (key.indexOf('=') >= 0) throw new IllegalArgumentException("key should not contain '=': " + key);
+        parameters.put(key, value);
+        return this;
+    }
+
+    /** Forks java instead of the one running this JVM. */
+    public ForkedTrial java(File executable) {
+        java = executable.getPath();
+        return this;
+    }
+
+    /** Sets the class path of the forked JVM, the one of this JVM by default. */
+    public ForkedTrial classpath(String classpath) {
+        this.classpath = classpath;
+        return this;
+    }
+
+    /**
+     * Warms the forked run up until steady, see {@link Benchmarker#warmupUntilSteady(double, long, TimeUnit)}, and
+     * measures how long it took to get there.
+     */
+    public ForkedTrial steadyState(double tolerance, long maxPeriod, TimeUnit unit) {
+        if (tolerance <= 0) throw new IllegalArgumentException("tolerance should be positive: " + tolerance);
+        if (maxPeriod <= 0) throw new IllegalArgumentException("max period should be positive: " + maxPeriod);
+        steadyTolerance = tolerance;
+        steadyMaxNanos = unit.toNanos(maxPeriod);
+        return this;
+    }
+
+    /** Kills the forked JVM if it has not exited within timeout from the fork, 1 hour by default. */
+    public ForkedTrial timeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout should be positive: " + timeout);
+        timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /** Forks a JVM running the scenario once, and waits for it to exit. */
+    public Outcome run() throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(classpath);
+        command.add(ForkedTrial.class.getName());
+        command.add(scenario);
+        command.add(String.valueOf(steadyTolerance));
+        command.add(String.valueOf(steadyMaxNanos));
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            command.add(entry.getKey() + '=' + entry.getValue());
+        }
+        ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        long fork = System.nanoTime();
+        final Process process = builder.start();
+        final AtomicBoolean killed = new AtomicBoolean();
+        Thread watchdog = new Thread(new Runnable() { // killing the JVM at timeout ends blocking reads of its pipe too
+            @Override
+            public void run() {
+                try {
+                    if (process.waitFor(timeoutNanos, TimeUnit.NANOSECONDS)) return;
+                    killed.set(true);
+                    process.destroyForcibly();
+                } catch (InterruptedException e) {
+                    // the trial is over
+                }
+            }
+        }, "forked-trial-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            if (in.readInt() != MAGIC) throw new IOException("unexpected output of forked JVM");
+            long startup = System.nanoTime() - fork;
+            byte reply = in.readByte();
+            if (reply == FAILED) throw new IOException("forked trial failed: " + in.readUTF());
+            if (reply != RESULT) throw new IOException("unexpected reply " + reply + " from forked JVM");
+            long firstCall = in.readLong();
+            long steady = in.readLong();
+            long measured = in.readLong();
+            List<Statistics> statistics = new ArrayList<Statistics>();
+            for (int i = in.readInt(); i > 0; i--) statistics.add(Statistics.readFrom(in));
+            watchdog.join();
+            if (killed.get()) throw new IOException(timedOut());
+            return new Outcome(statistics, measured, startup,
+                    firstCall < 0 ? -1L : startup + firstCall, steady < 0 ? -1L : startup + steady);
+        } catch (EOFException e) {
+            watchdog.join(); // the JVM exited, or is killed at timeout
+            if (killed.get()) throw new IOException(timedOut(), e);
+            throw new IOException("forked JVM exited with " + process.exitValue() + ", see its standard error", e);
+        } finally {
+            watchdog.interrupt();
+            process.destroyForcibly();
+        }
+    }
+
+    private String timedOut() {
+        return "forked JVM killed after timeout of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms";
+    }
+
+    /**
+     * Usage: <code>java com.github.zhongl.benchmarker.ForkedTrial &lt;scenario&gt; &lt;steady tolerance&gt;
+     * &lt;steady max nanos&gt; [key=value ...]</code>, which is what {@link #run()} forks.
+     */
+    public static void main(String[] args) throws Exception {
+        long main = System.nanoTime();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err); // keeps the pipe to the parent clean
+        out.writeInt(MAGIC);
+        out.flush();
+        int status = 0;
+        try {
+            if (args.length < 3) throw new IllegalArgumentException("Usage: CMD <scenario> <tolerance> <max nanos>");
+            double tolerance = Double.parseDouble(args[1]);
+            Map<String, String> parameters = new HashMap<String, String>();
+            for (String arg : Arrays.asList(args).subList(3, args.length)) {
+                int split = arg.indexOf('=');
+                parameters.put(arg.substring(0, split), arg.substring(split + 1));
+            }
+            Class<? extends Scenario> type = Class.forName(args[0]).asSubclass(Scenario.class);
+            Benchmarker benchmarker = type.getDeclaredConstructor().newInstance().create(parameters);
+            if (tolerance > 0) benchmarker.warmupUntilSteady(tolerance, Long.parseLong(args[2]), TimeUnit.NANOSECONDS);
+
+            long begin = System.nanoTime() - main;
+            Collection<Statistics> statistics = benchmarker.benchmark();
+            long firstCall = benchmarker.firstCallNanos(), warmedUp = benchmarker.warmedUpNanos();
+            out.writeByte(RESULT);
+            out.writeLong(firstCall < 0 ? -1L : begin + firstCall);
+            out.writeLong(tolerance > 0 && warmedUp >= 0 ? begin + warmedUp : -1L);
+            out.writeLong(benchmarker.measuredNanos());
+            out.writeInt(statistics.size());
+            for (Statistics s : statistics) s.writeTo(out);
+        } catch (Exception e) {
+            e.printStackTrace();
+            out.writeByte(FAILED);
+            out.writeUTF(String.valueOf(e));
+            status = 1;
+        }
+        out.flush();
+        System.exit(status); // threads left by the scenario should not keep it alive
+    }
+
+    /** {@link Outcome} of a forked run, with times from the fork of its JVM. */
+    public static final class Outcome {
+        private final Collection<Statistics> statistics;
+        private final long measuredNanos;
+        private final long startupNanos;
+        private final long firstCallNanos;
+        private final long steadyNanos;
+
+        Outcome(Collection<Statistics> statistics, long measuredNanos, long startupNanos, long firstCallNanos,
+                long steadyNanos) {
+            this.statistics = statistics;
+            this.measuredNanos = measuredNanos;
+            this.startupNanos = startupNanos;
+            this.firstCallNanos = firstCallNanos;
+            this.steadyNanos = steadyNanos;
+        }
+
+        public Collection<Statistics> statistics() {return Collections.unmodifiableCollection(statistics);}
+
+        public long measuredNanos() {return measuredNanos;}
+
+        /** @return time from the fork to the main method of the forked JVM. */
+        public long startupNanos() {return startupNanos;}
+
+        /** @return time from the fork to the completion of the first call, or -1 if none completed. */
+        public long firstCallNanos() {return firstCallNanos;}
+
+        /** @return time from the fork to a steady state, or -1 if not asked for or never measured. */
+        public long steadyNanos() {return steadyNanos;}
+
+        /** @return results of the run, with its startup times as metadata, e.g. to save for a {@link Comparison}. */
+        public Results results() {
+            return new Results(statistics, measuredNanos)
+                    .put("startup.nanos", String.valueOf(startupNanos))
+                    .put("first.call.nanos", String.valueOf(firstCallNanos))
+                    .put("steady.nanos", String.valueOf(steadyNanos));
+        }
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("startup={0,number,#.###} ms, first call={1}, steady={2}",
+                    startupNanos / NANOS_PER_MILLI, millis(firstCallNanos), millis(steadyNanos));
+        }
+
+        private static String millis(long nanos) {
+            if (nanos < 0) return "n/a";
+            return MessageFormat.format("{0,number,#.###} ms", nanos / NANOS_PER_MILLI);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link Histogram} counts values in log-bucketed, linearly sub-divided buckets (the HdrHistogram layout), so every
+ * value is kept with a relative error under 1/128 and memory stays fixed however many values are recorded.
+ * <p/>
+ * Values above the highest trackable value are counted in the last bucket.
+ * <p/>
+ * Only one thread may record into or change a histogram, but any number of others may read or copy it meanwhile; they
+ * never see a torn count, though a copy taken while recording may miss the latest values.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Histogram {
+
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+
+    public Histogram() {this(DEFAULT_HIGHEST_TRACKABLE_VALUE);}
+
+    public Histogram(long highestTrackableValue) {
+        if (highestTrackableValue < SUB_BUCKET_COUNT)
+            throw new IllegalArgumentException("highestTrackableValue should not be less than " + SUB_BUCKET_COUNT);
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) throw new IllegalArgumentException("value should not be negative: " + value);
+        int index = indexOf(Math.min(value, highestTrackableValue));
+        counts.lazySet(index, counts.get(index) + 1); // single writer needs no CAS
+    }
+
+    /** Merges all counts of other into this. */
+    public void add(Histogram other) {
+        checkCompatible(other);
+        for (int i = 0; i < counts.length(); i++) counts.lazySet(i, counts.get(i) + other.counts.get(i));
+    }
+
+    /** Removes all counts of other, which must have been recorded before, from this. */
+    public void subtract(Histogram other) {
+        checkCompatible(other);
+        for (int i = 0; i < counts.length(); i++) counts.lazySet(i, counts.get(i) - other.counts.get(i));
+    }
+
+    public Histogram copy() {
+        Histogram copy = new Histogram(highestTrackableValue);
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.lazySet(i, 0L);
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+        return total;
+    }
+
+    public long min() {
+        for (int i = 0; i < counts.length(); i++) if (counts.get(i) > 0) return valueFrom(i);
+        return 0L;
+    }
+
+    public long max() {
+        for (int i = counts.length() - 1; i >= 0; i--) if (counts.get(i) > 0) return highestEquivalentValue(i);
+        return 0L;
+    }
+
+    public double mean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count == 0) continue;
+            total += count;
+            sum += count * (valueFrom(i) + (highestEquivalentValue(i) - valueFrom(i)) / 2.0);
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /** @return the highest value that percentile of all recorded values are less than or equal to. */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile should be in [0, 100]: " + percentile);
+        long total = count();
+        if (total == 0) return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100 * total));
+        long accumulated = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            accumulated += counts.get(i);
+            if (accumulated >= rank) return highestEquivalentValue(i);
+        }
+        return max();
+    }
+
+    public long highestTrackableValue() {return highestTrackableValue;}
+
+    /** Writes only buckets having counts, so the size depends on the range of values recorded rather than on counts. */
+    public void writeTo(DataOutput out) throws IOException {
+        int buckets = 0;
+        for (int i = 0; i < counts.length(); i++) if (counts.get(i) != 0) buckets++;
+        out.writeLong(highestTrackableValue);
+        out.writeInt(buckets);
+        for (int i = 0; i < counts.length() && buckets > 0; i++) {
+            long count = counts.get(i);
+            if (count == 0) continue;
+            out.writeShort(i);
+            out.writeLong(count);
+            buckets--;
+        }
+    }
+
+    public static Histogram readFrom(DataInput in) throws IOException {
+        Histogram histogram = new Histogram(in.readLong());
+        int buckets = in.readInt();
+        for (int i = 0; i < buckets; i++) {
+            int index = in.readUnsignedShort();
+            if (index >= histogram.counts.length()) throw new IOException("bucket out of range: " + index);
+            histogram.counts.lazySet(index, in.readLong());
+        }
+        return histogram;
+    }
+
+    int buckets() {return counts.length();}
+
+    long countAt(int bucket) {return counts.get(bucket);}
+
+    private void checkCompatible(Histogram other) {
+        if (other.highestTrackableValue != highestTrackableValue)
+            throw new IllegalArgumentException("can't combine histograms with different highest trackable value");
+    }
+
+    private static int indexOf(long value) {
+        int bucket = 64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> bucket);
+        return bucket * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    private static long valueFrom(int index) {
+        int bucket = Math.max(0, index / SUB_BUCKET_HALF_COUNT - 1);
+        long subBucket = index - bucket * SUB_BUCKET_HALF_COUNT;
+        return subBucket << bucket;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        int bucket = Math.max(0, index / SUB_BUCKET_HALF_COUNT - 1);
+        return valueFrom(index) + (1L << bucket) - 1;
+    }
+}
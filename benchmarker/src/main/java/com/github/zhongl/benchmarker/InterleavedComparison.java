@@ -0,0 +1,220 @@
+package com.github.zhongl.benchmarker;
+
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link InterleavedComparison} compares variants of an implementation by running them in short rounds, each variant
+ * once a round in a random order under the same concurrency, rather than one long run after another:
+ * <pre>
+ * InterleavedComparison comparison = new InterleavedComparison(8)
+ *         .variant("before", before).variant("after", after)
+ *         .rounds(30).round(200, MILLISECONDS, 1, SECONDS);
+ * for (InterleavedComparison.Difference d : comparison.compare()) System.out.println(d);
+ * </pre>
+ * Each variant is compared with the first one, the baseline, by the ratios of their throughput and of their mean
+ * latency within each round, so drift of the machine over the whole comparison, e.g. by heat, GC or background load,
+ * cancels out. The geometric mean of the ratios over rounds comes with a 95% confidence interval by Student's t, which
+ * is narrow enough to tell a change of 2 or 3% with enough rounds.
+ * <p/>
+ * A first round warms all variants up and is left out. Factories are shared by all rounds, so they should create
+ * callables as long as asked for.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class InterleavedComparison {
+
+    private static final double Z_95 = 1.96; // two-sided 95% confidence
+    private static final double[] T_95 = {Double.NaN, // by degrees of freedom from 1 to 29
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final int concurrent;
+    private final Map<String, CallableFactory> variants = new LinkedHashMap<String, CallableFactory>();
+    private final Map<String, Map<String, Statistics>> statistics = new HashMap<String, Map<String, Statistics>>();
+
+    private int rounds = 20;
+    private long warmupNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private long durationNanos = TimeUnit.SECONDS.toNanos(1);
+    private long seed = System.nanoTime();
+
+    /** @param concurrent threads to run calls of each variant on. */
+    public InterleavedComparison(int concurrent) {
+        if (concurrent <= 0) throw new IllegalArgumentException("concurrent should be positive: " + concurrent);
+        this.concurrent = concurrent;
+    }
+
+    /** Adds a variant, the first of which is the baseline. */
+    public InterleavedComparison variant(String name, CallableFactory factory) {
+        if (variants.containsKey(name)) throw new IllegalArgumentException("duplicated variant: " + name);
+        variants.put(name, factory);
+        return this;
+    }
+
+    /** Runs rounds rounds after the one warming up, 20 by default. */
+    public InterleavedComparison rounds(int rounds) {
+        if (rounds < 2) throw new IllegalArgumentException("rounds should be at least 2: " + rounds);
+        this.rounds = rounds;
+        return this;
+    }
+
+    /** Runs each variant for duration in a round after warming up, 1 second after 200 ms by default. */
+    public InterleavedComparison round(long warmup, TimeUnit warmupUnit, long duration, TimeUnit durationUnit) {
+        if (warmup < 0) throw new IllegalArgumentException("warm-up should not be negative: " + warmup);
+        if (duration <= 0) throw new IllegalArgumentException("duration should be positive: " + duration);
+        warmupNanos = warmupUnit.toNanos(warmup);
+        durationNanos = durationUnit.toNanos(duration);
+        return this;
+    }
+
+    /** Seeds the orders of variants in rounds, to repeat a comparison. */
+    public InterleavedComparison seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /** @return differences of each variant other than the baseline from it, in throughput and then latency. */
+    public List<Difference> compare() throws InterruptedException {
+        if (variants.size() < 2) throw new IllegalStateException("at least 2 variants to compare: " + variants.size());
+        List<String> names = new ArrayList<String>(variants.keySet());
+        Map<String, double[]> throughput = new HashMap<String, double[]>();
+        Map<String, double[]> latency = new HashMap<String, double[]>();
+        for (String name : names) {
+            throughput.put(name, new double[rounds]);
+            latency.put(name, new double[rounds]);
+        }
+        statistics.clear();
+        List<String> order = new ArrayList<String>(names);
+        Random random = new Random(seed);
+        for (int round = -1; round < rounds; round++) {
+            Collections.shuffle(order, random);
+            for (String name : order) {
+                Benchmarker benchmarker = new Benchmarker(variants.get(name), concurrent)
+                        .duration(durationNanos, TimeUnit.NANOSECONDS);
+                if (warmupNanos > 0) benchmarker.warmup(warmupNanos, TimeUnit.NANOSECONDS);
+                Collection<Statistics> collected = benchmarker.benchmark();
+                if (round < 0) continue; // warming up
+                long done = 0, succeeded = 0;
+                double latencySum = 0;
+                for (Statistics s : collected) {
+                    Histogram histogram = s.latency();
+                    done += histogram.count() + s.errorCount();
+                    succeeded += histogram.count(); // errors have no latency
+                    latencySum += histogram.mean() * histogram.count();
+                    merge(name, s);
+                }
+                long measured = benchmarker.measuredNanos();
+                throughput.get(name)[round] = measured > 0 ? done * NANOS_PER_SECOND / measured : Double.NaN;
+                latency.get(name)[round] = succeeded > 0 ? latencySum / succeeded : Double.NaN;
+            }
+        }
+        List<Difference> differences = new ArrayList<Difference>();
+        String baseline = names.get(0);
+        for (String name : names.subList(1, names.size())) {
+            differences.add(
+                    Difference.of(name, baseline, "throughput", throughput.get(name), throughput.get(baseline)));
+            differences.add(Difference.of(name, baseline, "latency", latency.get(name), latency.get(baseline)));
+        }
+        return differences;
+    }
+
+    /** @return statistics of variant merged over the rounds of the last comparison, by operation. */
+    public Collection<Statistics> statistics(String variant) {
+        Map<String, Statistics> merged = statistics.get(variant);
+        if (merged == null) return Collections.emptyList();
+        return Collections.unmodifiableCollection(merged.values());
+    }
+
+    private void merge(String variant, Statistics s) {
+        Map<String, Statistics> merged = statistics.get(variant);
+        if (merged == null) statistics.put(variant, merged = new TreeMap<String, Statistics>());
+        Statistics sum = merged.get(s.operation());
+        if (sum == null) merged.put(s.operation(), sum = new Statistics(s.operation()));
+        sum.add(s);
+    }
+
+    /**
+     * @return two-sided 95% quantile of Student's t, from a table below 30 degrees of freedom, where the Cornish-Fisher
+     *         expansion around the normal one is off, e.g. by a quarter at 1, and by the expansion from there.
+     */
+    static double t95(int degreesOfFreedom) {
+        if (degreesOfFreedom <= 0)
+            throw new IllegalArgumentException("degrees of freedom should be positive: " + degreesOfFreedom);
+        if (degreesOfFreedom < T_95.length) return T_95[degreesOfFreedom];
+        double z = Z_95, z3 = z * z * z, z5 = z3 * z * z, z7 = z5 * z * z, v = degreesOfFreedom;
+        return z + (z3 + z) / (4 * v) + (5 * z5 + 16 * z3 + 3 * z) / (96 * v * v)
+                + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * v * v * v);
+    }
+
+    /** {@link Difference} of a metric of a variant from the baseline, as relative changes, e.g. 0.03 for +3%. */
+    public static final class Difference {
+        private final String variant;
+        private final String baseline;
+        private final String metric;
+        private final double change;
+        private final double lower;
+        private final double upper;
+
+        Difference(String variant, String baseline, String metric, double change, double lower, double upper) {
+            this.variant = variant;
+            this.baseline = baseline;
+            this.metric = metric;
+            this.change = change;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        /** @return the difference by the ratios of values of variant to those of baseline round by round. */
+        static Difference of(String variant, String baseline, String metric, double[] values, double[] base) {
+            int n = 0;
+            double sum = 0, squares = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (!measured(values[i]) || !measured(base[i])) continue; // nothing done in the round
+                double log = Math.log(values[i] / base[i]);
+                sum += log;
+                squares += log * log;
+                n++;
+            }
+            if (n < 2) return new Difference(variant, baseline, metric, Double.NaN, Double.NaN, Double.NaN);
+            double mean = sum / n;
+            double deviation = Math.sqrt(Math.max(0, (squares - sum * mean) / (n - 1)));
+            double margin = t95(n - 1) * deviation / Math.sqrt(n);
+            return new Difference(variant, baseline, metric,
+                    Math.expm1(mean), Math.expm1(mean - margin), Math.expm1(mean + margin));
+        }
+
+        public String variant() {return variant;}
+
+        public String baseline() {return baseline;}
+
+        /** @return "throughput" or "latency". */
+        public String metric() {return metric;}
+
+        public double change() {return change;}
+
+        /** @return lower bound of the 95% confidence interval of change. */
+        public double lower() {return lower;}
+
+        /** @return upper bound of the 95% confidence interval of change. */
+        public double upper() {return upper;}
+
+        /** @return true if the confidence interval excludes no change. */
+        public boolean significant() {return lower > 0 || upper < 0;}
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("{0}\t: {1} {2} [{3}, {4}] vs {5}{6}", variant, metric,
+                    percent(change), percent(lower), percent(upper), baseline, significant() ? " SIGNIFICANT" : "");
+        }
+
+        private static String percent(double change) {
+            return MessageFormat.format("{0,number,+#.##%;-#.##%}", change);
+        }
+
+        /** @return false for values of rounds with nothing done or measured, i.e. non-positive, NaN or infinite. */
+        private static boolean measured(double value) {return value > 0 && !Double.isInfinite(value);}
+    }
+}
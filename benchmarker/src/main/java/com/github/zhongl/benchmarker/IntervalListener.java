@@ -0,0 +1,20 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.Collection;
+
+/**
+ * {@link IntervalListener} receives statistics recorded during each interval of a run, from the monitor thread of
+ * {@link Benchmarker} while the run is going on.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface IntervalListener {
+
+    /**
+     * @param elapsedNanos  from the start of run to the start of interval.
+     * @param durationNanos of the interval.
+     * @param statistics    of operations recorded during the interval, empty ones included.
+     * @param runtime       of the benchmarker JVM during the interval.
+     */
+    void onInterval(long elapsedNanos, long durationNanos, Collection<Statistics> statistics, RuntimeSample runtime);
+}
@@ -0,0 +1,239 @@
+package com.github.zhongl.benchmarker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LiveMetrics} exposes statistics of a run while it is going on, over JMX and as a Prometheus text endpoint:
+ * <pre>
+ * LiveMetrics live = new LiveMetrics("soak").serve(9404).register();
+ * new Benchmarker(factory, 64).duration(8, HOURS).listen(live).benchmark();
+ * live.close();
+ * </pre>
+ * The endpoint is served at the loopback address by default, bind it to e.g. 0.0.0.0 by
+ * {@link #serve(InetAddress, int)} to be scraped from other machines.
+ * <p/>
+ * Throughput and percentiles are of the last interval, and counts are totals since the run started. Everything is
+ * computed on the monitor thread once an interval, and published as an immutable snapshot, so neither a scrape nor a
+ * JMX read ever touches the recording threads.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@ThreadSafe
+public final class LiveMetrics implements IntervalListener, Closeable {
+
+    static final String PATH = "/metrics";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILES = {"p50", "p90", "p99", "p99_9"};
+
+    private final String run;
+    private final Map<String, Total> totals = new TreeMap<String, Total>(); // only accessed by the monitor thread
+
+    private volatile Map<String, Number> values = Collections.emptyMap();
+    private volatile String text = "";
+    private HttpServer server;
+    private ObjectName name;
+
+    public LiveMetrics(String run) {this.run = run;}
+
+    /** Serves the Prometheus text at {@value #PATH} of port of the loopback address, or of a free one if port is 0. */
+    public LiveMetrics serve(int port) throws IOException {
+        return serve(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public synchronized LiveMetrics serve(InetAddress bindAddress, int port) throws IOException {
+        if (server != null) throw new IllegalStateException("already served at " + server.getAddress());
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0); // 0 is the default backlog
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = text.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    /** @return the port served at, e.g. after {@link #serve(int)} a free one. */
+    public synchronized int port() {
+        if (server == null) throw new IllegalStateException("not served");
+        return server.getAddress().getPort();
+    }
+
+    /** Registers an MBean named com.github.zhongl.benchmarker:type=LiveMetrics,run=run to the platform server. */
+    public synchronized LiveMetrics register() throws JMException {
+        if (name != null) throw new IllegalStateException("already registered as " + name);
+        ObjectName name = new ObjectName("com.github.zhongl.benchmarker:type=LiveMetrics,run=" + ObjectName.quote(run));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+        this.name = name;
+        return this;
+    }
+
+    /** @return the values of the last interval, keyed as operation.metric, which are the attributes of the MBean. */
+    public Map<String, Number> values() {return values;}
+
+    /** @return the Prometheus text of the last interval. */
+    public String text() {return text;}
+
+    @Override
+    public void onInterval(long elapsedNanos, long durationNanos, Collection<Statistics> statistics,
+                           RuntimeSample runtime) {
+        Map<String, Number> values = new TreeMap<String, Number>();
+        StringBuilder throughput = new StringBuilder(), latency = new StringBuilder(), errors = new StringBuilder();
+        for (Statistics s : statistics) {
+            Total total = totals.get(s.operation());
+            if (total == null) totals.put(s.operation(), total = new Total());
+            Histogram histogram = s.latency();
+            total.add(s, histogram);
+
+            String op = s.operation();
+            double rate = histogram.count() * NANOS_PER_SECOND / durationNanos;
+            values.put(op + ".throughput", rate);
+            values.put(op + ".count", total.count);
+            values.put(op + ".errors", total.errors);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                double nanos = histogram.valueAtPercentile(QUANTILES[i] * 100);
+                values.put(op + "." + PERCENTILES[i] + "_ms", nanos / NANOS_PER_MILLI);
+                sample(latency, "benchmarker_latency_seconds", op, "quantile", String.valueOf(QUANTILES[i]),
+                        nanos / NANOS_PER_SECOND);
+            }
+            values.put(op + ".max_ms", histogram.max() / NANOS_PER_MILLI);
+
+            sample(throughput, "benchmarker_throughput", op, null, null, rate);
+            sample(latency, "benchmarker_latency_seconds_sum", op, null, null, total.sumNanos / NANOS_PER_SECOND);
+            sample(latency, "benchmarker_latency_seconds_count", op, null, null, total.count);
+            for (Map.Entry<String, Long> entry : total.errorTypes.entrySet())
+                sample(errors, "benchmarker_errors_total", op, "type", entry.getKey(), entry.getValue());
+        }
+        values.put("jvm.cpu_usage", runtime.cpuUsage());
+        values.put("jvm.gc_ms", runtime.gcNanos() / NANOS_PER_MILLI);
+
+        StringBuilder text = new StringBuilder();
+        family(text, "benchmarker_throughput", "gauge", "Successful calls per second of the last interval.",
+                throughput);
+        family(text, "benchmarker_latency_seconds", "summary",
+                "Latency of successful calls, quantiles of the last interval.", latency);
+        family(text, "benchmarker_errors_total", "counter", "Failed calls by exception type.", errors);
+        this.values = Collections.unmodifiableMap(values);
+        this.text = text.toString();
+    }
+
+    /** Stops serving and unregisters the MBean, if any. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (server != null) server.stop(0);
+        server = null;
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IOException("can't unregister " + name, e);
+        } finally {
+            name = null;
+        }
+    }
+
+    private void sample(StringBuilder sb, String metric, String operation, String label, String value, double number) {
+        sb.append(metric).append("{run=\"").append(escape(run)).append("\",operation=\"").append(escape(operation));
+        if (label != null) sb.append("\",").append(label).append("=\"").append(escape(value));
+        sb.append("\"} ").append(number).append('\n');
+    }
+
+    private static void family(StringBuilder text, String metric, String type, String help, StringBuilder samples) {
+        text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+        text.append(samples);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Totals of an operation since the run started. */
+    private static final class Total {
+        final Map<String, Long> errorTypes = new TreeMap<String, Long>();
+        long count;
+        long errors;
+        double sumNanos;
+
+        void add(Statistics interval, Histogram latency) {
+            count += latency.count();
+            errors += interval.errorCount();
+            sumNanos += latency.mean() * latency.count();
+            for (Map.Entry<String, Long> entry : interval.errorTypes().entrySet()) {
+                Long current = errorTypes.get(entry.getKey());
+                errorTypes.put(entry.getKey(), (current == null ? 0L : current) + entry.getValue());
+            }
+        }
+    }
+
+    /** Read-only attributes of whatever the last interval had. */
+    private final class Bean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = values.get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> current = values;
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = current.get(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {return new AttributeList();}
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Number> entry : values.entrySet()) {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(LiveMetrics.class.getName(), "Live statistics of run " + run,
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.zhongl.benchmarker;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LoadProfile} changes the level of load over a run by a script of {@link Stage}s, and statistics are reported
+ * per stage, so one run draws the throughput-latency curve of a target. The level is the concurrency of a closed-loop
+ * run, or the calls per second of an open-loop one.
+ * <p/>
+ * <pre>
+ * new LoadProfile()
+ *      .ramp(0, 500, 1, MINUTES)
+ *      .steps(600, 1000, 100, 30, SECONDS)
+ *      .spike(3000, 10, SECONDS)
+ *      .soak(500, 2, HOURS);
+ * </pre>
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class LoadProfile {
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    /** Changes level linearly from one value to another. */
+    public LoadProfile ramp(double from, double to, long duration, TimeUnit unit) {
+        String name = MessageFormat.format("ramp {0,number,#.##}->{1,number,#.##}", from, to);
+        return add(new Stage(name, from, to, unit.toNanos(duration)));
+    }
+
+    /** Holds each level from one value to another by step for duration, as stairs. */
+    public LoadProfile steps(double from, double to, double step, long duration, TimeUnit unit) {
+        if (step <= 0) throw new IllegalArgumentException("step should be positive: " + step);
+        int direction = from <= to ? 1 : -1;
+        int n = (int) Math.floor(Math.abs(to - from) / step + 1e-9); // counted, or added steps would miss to by error
+        for (int i = 0; i <= n; i++) hold("step", from + direction * i * step, duration, unit);
+        return this;
+    }
+
+    /** Holds a short burst of level. */
+    public LoadProfile spike(double level, long duration, TimeUnit unit) {
+        return hold("spike", level, duration, unit);
+    }
+
+    /** Holds level for a long time. */
+    public LoadProfile soak(double level, long duration, TimeUnit unit) {
+        return hold("soak", level, duration, unit);
+    }
+
+    public List<Stage> stages() {return Collections.unmodifiableList(stages);}
+
+    long durationNanos() {
+        long duration = 0;
+        for (Stage stage : stages) duration += stage.durationNanos();
+        return duration;
+    }
+
+    double maxLevel() {
+        double max = 0;
+        for (Stage stage : stages) max = Math.max(max, stage.maxLevel());
+        return max;
+    }
+
+    /** @return index of the stage at elapsed since the profile began, or stages count if it is over. */
+    int indexAt(long elapsedNanos) {
+        for (int i = 0; i < stages.size(); i++) {
+            elapsedNanos -= stages.get(i).durationNanos();
+            if (elapsedNanos < 0) return i;
+        }
+        return stages.size();
+    }
+
+    /** @return level at elapsed since the profile began, the first level before and the last level after it. */
+    double levelAt(long elapsedNanos) {
+        if (stages.isEmpty()) throw new IllegalStateException("profile has no stage");
+        if (elapsedNanos < 0) return stages.get(0).levelAt(0);
+        for (Stage stage : stages) {
+            if (elapsedNanos < stage.durationNanos()) return stage.levelAt(elapsedNanos);
+            elapsedNanos -= stage.durationNanos();
+        }
+        Stage last = stages.get(stages.size() - 1);
+        return last.levelAt(last.durationNanos());
+    }
+
+    private LoadProfile hold(String kind, double level, long duration, TimeUnit unit) {
+        String name = MessageFormat.format("{0} {1,number,#.##}", kind, level);
+        return add(new Stage(name, level, level, unit.toNanos(duration)));
+    }
+
+    private LoadProfile add(Stage stage) {
+        stages.add(stage);
+        return this;
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.zhongl.benchmarker;
+
+/**
+ * {@link Named} is a callable naming the operation it is recorded as, instead of its class name.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface Named {
+    String operation();
+}
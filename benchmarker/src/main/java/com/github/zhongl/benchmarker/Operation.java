@@ -1,7 +1,5 @@
 package com.github.zhongl.benchmarker;
 
-import com.google.common.base.Stopwatch;
-
 import java.util.concurrent.CountDownLatch;
 
 /** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
@@ -16,13 +14,13 @@ public abstract class Operation implements Runnable {
 
     @Override
     public final void run() {
-        Stopwatch stopwatch = new Stopwatch().start();
+        long begin = System.nanoTime();
         try {
             execute();
         } catch (Throwable t) {
             collector.error(opertionName(), t);
         }
-        collector.elapse(opertionName(), stopwatch.elapsedMillis());
+        collector.elapse(opertionName(), System.nanoTime() - begin);
         latch.countDown();
 
     }
@@ -5,36 +5,49 @@ import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+/**
+ * {@link Progress} counts done calls on a striped counter, so counting neither contends nor allocates, and is only
+ * summed when printed. Reaching times is therefore noticed at the next period, unless someone {@link #finish()}es.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
 public class Progress {
 
     public static final String FORMAT = "{0,number,#%}";
-    private final CountDownLatch latch;
+    private final LongAdder done = new LongAdder();
+    private final CountDownLatch finished = new CountDownLatch(1);
     private final int times;
     private final PrintStream out;
     private final int period;
+    private volatile long begin;
+    private volatile long durationNanos; // 0 means progress is counted by times only
 
     public Progress(int times, PrintStream out, int period) {
         this.times = times;
         this.out = out;
         this.period = period;
-        latch = new CountDownLatch(times);
     }
 
     public void awaitAndprintStatus() throws InterruptedException {
         out.print("progress: ");
         out.print(status(0));
         backspace(2);
-        while (latch.getCount() > 0) {
-            latch.await(period, TimeUnit.SECONDS);
-            String status = status(1 - (latch.getCount() * 1.0 / times));
+        while (!finished.await(period, TimeUnit.SECONDS) && done.sum() < times) {
+            String status = status(fraction());
             out.print(status);
             backspace(status.length());
         }
         out.println(status(1));
     }
 
+    private double fraction() {
+        double byTimes = done.sum() * 1.0 / times;
+        if (durationNanos == 0) return byTimes;
+        return Math.max(byTimes, Math.min(1.0, (System.nanoTime() - begin) * 1.0 / durationNanos));
+    }
+
     private void backspace(int size) {
         char[] backspaces = new char[size];
         Arrays.fill(backspaces, '\b');
@@ -43,7 +56,20 @@ public class Progress {
 
     private String status(double value) {return MessageFormat.format(FORMAT, value);}
 
+    public long done() {return done.sum();}
+
     public void countDown() {
-        latch.countDown();
+        done.increment();
+    }
+
+    /** Counts progress by time elapsed since begin, which is a {@link System#nanoTime()}, as well. */
+    public void timeFrom(long begin, long durationNanos) {
+        this.begin = begin;
+        this.durationNanos = durationNanos;
+    }
+
+    /** Stops waiting even if less than times are done, e.g. the run was bounded by time. */
+    public void finish() {
+        finished.countDown();
     }
 }
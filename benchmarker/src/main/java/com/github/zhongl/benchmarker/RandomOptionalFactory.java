@@ -2,39 +2,135 @@ package com.github.zhongl.benchmarker;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
-/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+/**
+ * {@link RandomOptionalFactory} creates callables of an option chosen at random by its weight, in constant time from
+ * an alias table, and removes options once they are exhausted, i.e. create null.
+ * <p/>
+ * Each thread draws from its own random stream, split from one seeded by the seed in the order the threads first came
+ * in, so streams of threads are independent, threads only contend for a lock once, and a single thread gets the same
+ * mix every time.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
 @ThreadSafe
 public class RandomOptionalFactory implements CallableFactory {
-    private final List<CallableFactory> options;
-    private final Random random = new Random(1L); // use 1L for random the same sequance every time.
 
+    public static final long DEFAULT_SEED = 1L; // the same sequence every time
 
+    private final SplittableRandom root; // guarded by itself
+    private final ThreadLocal<SplittableRandom> random = new ThreadLocal<SplittableRandom>() {
+        @Override
+        protected SplittableRandom initialValue() {
+            synchronized (root) {
+                return root.split();
+            }
+        }
+    };
+    private final AtomicReference<AliasTable> table;
+
+    /** Every option has the same weight, so one passed twice is chosen twice as often. */
     public RandomOptionalFactory(CallableFactory... options) {
-        this(((List<CallableFactory>) asList(options)));
+        this(Arrays.asList(options));
     }
 
-    private static List<CallableFactory> asList(CallableFactory[] options) {
-        List<CallableFactory> list = new ArrayList<CallableFactory>();
-        Collections.addAll(list, options);
-        return list;
+    public RandomOptionalFactory(List<CallableFactory> options) {
+        this(DEFAULT_SEED, equalWeights(options.size()), options);
     }
 
-    public RandomOptionalFactory(List<CallableFactory> options) {this.options = options;}
+    public RandomOptionalFactory(double[] weights, CallableFactory... options) {
+        this(DEFAULT_SEED, weights, Arrays.asList(options));
+    }
+
+    public RandomOptionalFactory(long seed, double[] weights, List<CallableFactory> options) {
+        if (weights.length != options.size())
+            throw new IllegalArgumentException("weights should be as many as options: " + weights.length);
+        for (double weight : weights)
+            if (!(weight > 0)) throw new IllegalArgumentException("weight should be positive: " + weight);
+        this.root = new SplittableRandom(seed);
+        this.table = new AtomicReference<AliasTable>(
+                new AliasTable(options.toArray(new CallableFactory[options.size()]), weights.clone()));
+    }
 
     @Override
     public Callable<?> create() {
-        synchronized (options) {
-            int index = Math.abs(random.nextInt()) % options.size();
-            Callable<?> callable = options.get(index).create();
+        SplittableRandom random = random();
+        for (AliasTable current = table.get(); current.options.length > 0; current = table.get()) {
+            CallableFactory option = current.pick(random);
+            Callable<?> callable = option.create();
             if (callable != null) return callable;
-            options.remove(index);
-            if (options.isEmpty()) return null;
+            table.compareAndSet(current, current.without(option)); // a failure means others changed it already
+        }
+        return null;
+    }
+
+    /** @return the random stream of the calling thread. */
+    SplittableRandom random() {return random.get();}
+
+    private static double[] equalWeights(int size) {
+        double[] weights = new double[size];
+        Arrays.fill(weights, 1.0);
+        return weights;
+    }
+
+    /** Vose's alias method: each column holds an option with its probability, and an alias for the rest of it. */
+    private static final class AliasTable {
+        private final CallableFactory[] options;
+        private final double[] weights;
+        private final double[] probability;
+        private final int[] alias;
+
+        AliasTable(CallableFactory[] options, double[] weights) {
+            int n = options.length;
+            this.options = options;
+            this.weights = weights;
+            this.probability = new double[n];
+            this.alias = new int[n];
+
+            double sum = 0;
+            for (double weight : weights) sum += weight;
+            double[] scaled = new double[n];
+            int[] small = new int[n], large = new int[n];
+            int smalls = 0, larges = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / sum;
+                if (scaled[i] < 1.0) small[smalls++] = i;
+                else large[larges++] = i;
+            }
+            while (smalls > 0 && larges > 0) {
+                int less = small[--smalls], more = large[--larges];
+                probability[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] = scaled[more] + scaled[less] - 1.0;
+                if (scaled[more] < 1.0) small[smalls++] = more;
+                else large[larges++] = more;
+            }
+            while (larges > 0) probability[large[--larges]] = 1.0;
+            while (smalls > 0) probability[small[--smalls]] = 1.0; // only left by rounding errors
+        }
+
+        CallableFactory pick(SplittableRandom random) {
+            int column = random.nextInt(options.length);
+            return options[random.nextDouble() < probability[column] ? column : alias[column]];
+        }
+
+        /** @return a table of options other than exhausted, which may be listed more than once. */
+        AliasTable without(CallableFactory exhausted) {
+            List<CallableFactory> options = new ArrayList<CallableFactory>(this.options.length);
+            List<Double> weights = new ArrayList<Double>(this.options.length);
+            for (int i = 0; i < this.options.length; i++) {
+                if (this.options[i] == exhausted) continue;
+                options.add(this.options[i]);
+                weights.add(this.weights[i]);
+            }
+            double[] remained = new double[weights.size()];
+            for (int i = 0; i < remained.length; i++) remained[i] = weights.get(i);
+            return new AliasTable(options.toArray(new CallableFactory[options.size()]), remained);
         }
-        return create();
     }
 }
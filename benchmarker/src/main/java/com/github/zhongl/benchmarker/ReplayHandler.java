@@ -0,0 +1,14 @@
+package com.github.zhongl.benchmarker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ReplayHandler} sends a recorded request of a {@link TraceReplay} to the target.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface ReplayHandler {
+
+    /** @param payload of the request, a read-only view of the mapped trace rather than a copy on the heap. */
+    Object call(ByteBuffer payload) throws Exception;
+}
@@ -0,0 +1,132 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link Results} of a run, with full histograms and metadata describing where and how it ran, which can be saved to
+ * be {@link Comparison compared} with later runs.
+ * <p/>
+ * The file is gzipped and starts with a magic and a format version, so an older benchmarker refuses a newer file
+ * instead of misreading it.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Results {
+
+    static final int MAGIC = 0x424d4b52; // BMKR
+    static final short VERSION = 2; // 1 had no error latency and types
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, String> metadata;
+    private final long elapsedNanos;
+    private final Map<String, Statistics> statistics = new TreeMap<String, Statistics>();
+
+    /** Captures metadata of the current JVM and machine, more can be {@link #put(String, String)} before saving. */
+    public Results(Collection<Statistics> statistics, long elapsedNanos) {
+        this(environment(), statistics, elapsedNanos);
+    }
+
+    private Results(Map<String, String> metadata, Collection<Statistics> statistics, long elapsedNanos) {
+        if (elapsedNanos <= 0) throw new IllegalArgumentException("elapsedNanos should be positive: " + elapsedNanos);
+        this.metadata = metadata;
+        this.elapsedNanos = elapsedNanos;
+        for (Statistics s : statistics) this.statistics.put(s.operation(), s);
+    }
+
+    public static Results load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a results file");
+            short version = in.readShort();
+            if (version > VERSION) throw new IOException(file + " has unsupported version " + version);
+            Map<String, String> metadata = new LinkedHashMap<String, String>();
+            for (int i = in.readInt(); i > 0; i--) metadata.put(in.readUTF(), in.readUTF());
+            long elapsedNanos = in.readLong();
+            List<Statistics> statistics = new ArrayList<Statistics>();
+            for (int i = in.readInt(); i > 0; i--) statistics.add(Statistics.readFrom(in, version > 1));
+            return new Results(metadata, statistics, elapsedNanos);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                new FileOutputStream(file))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(metadata.size());
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeLong(elapsedNanos);
+            out.writeInt(statistics.size());
+            for (Statistics s : statistics.values()) s.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public Results put(String key, String value) {
+        metadata.put(key, value);
+        return this;
+    }
+
+    /** Puts figures of runtime, e.g. {@link Benchmarker#runtime()}, into metadata. */
+    public Results put(RuntimeSample runtime) {
+        metadata.putAll(runtime.toMap());
+        return this;
+    }
+
+    /** Puts how many stacks were sampled and what that cost, e.g. {@link Benchmarker#stackSampler()}, into metadata. */
+    public Results put(StackSampler sampler) {
+        metadata.putAll(sampler.toMap());
+        return this;
+    }
+
+    public Map<String, String> metadata() {return Collections.unmodifiableMap(metadata);}
+
+    public long elapsedNanos() {return elapsedNanos;}
+
+    public Collection<Statistics> statistics() {return Collections.unmodifiableCollection(statistics.values());}
+
+    /** @return statistics of operation, or null if it was never called. */
+    public Statistics statistics(String operation) {return statistics.get(operation);}
+
+    /** @return successful calls of operation per second. */
+    public double throughput(String operation) {
+        Statistics s = statistics.get(operation);
+        return s == null ? 0 : s.latency().count() * NANOS_PER_SECOND / elapsedNanos;
+    }
+
+    private static Map<String, String> environment() {
+        Map<String, String> metadata = new LinkedHashMap<String, String>();
+        SimpleDateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ROOT);
+        metadata.put("time", iso8601.format(new Date()));
+        metadata.put("host", hostName());
+        metadata.put("processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        for (String key : new String[]{"java.version", "java.vm.name", "os.name", "os.arch", "os.version"}) {
+            metadata.put(key, System.getProperty(key, ""));
+        }
+        return metadata;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.zhongl.benchmarker;
+
+import java.lang.management.*;
+import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RuntimeSample} is what the benchmarker JVM itself did over a period, read from the platform MXBeans, so a
+ * latency spike can be told apart from its own GC, JIT or CPU starvation.
+ * <p/>
+ * Allocation is summed over live threads, and threads of the benchmarker's pool add theirs as they end, but bytes
+ * allocated by other threads which died within the period are missed. Virtual threads are neither listed nor kept as
+ * they end, so allocation of runs on them is unavailable, i.e. -1. Any other figure the JVM does not support is 0.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class RuntimeSample {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final AtomicLong RETIRED_BYTES = new AtomicLong();
+
+    private final long durationNanos;
+    private final long gcCount;
+    private final long gcNanos;
+    private final long allocatedBytes;
+    private final long compilationNanos;
+    private final long cpuNanos;
+    private final int processors;
+
+    private RuntimeSample(long durationNanos, long gcCount, long gcNanos, long allocatedBytes,
+                          long compilationNanos, long cpuNanos, int processors) {
+        this.durationNanos = durationNanos;
+        this.gcCount = gcCount;
+        this.gcNanos = gcNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.compilationNanos = compilationNanos;
+        this.cpuNanos = cpuNanos;
+        this.processors = processors;
+    }
+
+    /** @return the totals since the JVM started, with {@link System#nanoTime()} as duration, to take differences of. */
+    public static RuntimeSample now() {
+        long gcCount = 0, gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0L, gc.getCollectionCount());
+            gcMillis += Math.max(0L, gc.getCollectionTime());
+        }
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        long jitMillis = jit != null && jit.isCompilationTimeMonitoringSupported() ? jit.getTotalCompilationTime() : 0L;
+        return new RuntimeSample(System.nanoTime(), gcCount, TimeUnit.MILLISECONDS.toNanos(gcMillis),
+                totalAllocatedBytes(), TimeUnit.MILLISECONDS.toNanos(jitMillis), processCpuNanos(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @return what happened between earlier and this. */
+    public RuntimeSample minus(RuntimeSample earlier) {
+        return new RuntimeSample(durationNanos - earlier.durationNanos,
+                gcCount - earlier.gcCount,
+                gcNanos - earlier.gcNanos,
+                allocatedBytes < 0 || earlier.allocatedBytes < 0
+                        ? -1L : Math.max(0L, allocatedBytes - earlier.allocatedBytes), // threads may have died
+                compilationNanos - earlier.compilationNanos,
+                cpuNanos - earlier.cpuNanos,
+                processors);
+    }
+
+    /** @return this with allocation unavailable, e.g. of a run on virtual threads. */
+    RuntimeSample withoutAllocation() {
+        return new RuntimeSample(durationNanos, gcCount, gcNanos, -1L, compilationNanos, cpuNanos, processors);
+    }
+
+    public long durationNanos() {return durationNanos;}
+
+    public long gcCount() {return gcCount;}
+
+    /** @return time spent collecting garbage, mostly paused for the collectors of a HotSpot JVM. */
+    public long gcNanos() {return gcNanos;}
+
+    /** @return bytes allocated, or -1 if unavailable. */
+    public long allocatedBytes() {return allocatedBytes;}
+
+    public long compilationNanos() {return compilationNanos;}
+
+    public long cpuNanos() {return cpuNanos;}
+
+    /** @return bytes allocated per second, or -1 if unavailable. */
+    public double allocationRate() {
+        if (allocatedBytes < 0) return -1;
+        return durationNanos <= 0 ? 0 : allocatedBytes * NANOS_PER_SECOND / durationNanos;
+    }
+
+    /** @return processor time per available processor over the period, about 1 when the JVM kept all of them busy. */
+    public double cpuUsage() {
+        return durationNanos <= 0 ? 0 : cpuNanos * 1.0 / durationNanos / processors;
+    }
+
+    /** @return the figures keyed with jvm. prefixed names, e.g. for the metadata of {@link Results}. */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        map.put("jvm.gc_count", String.valueOf(gcCount));
+        map.put("jvm.gc_ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(gcNanos)));
+        map.put("jvm.allocated_bytes", String.valueOf(allocatedBytes));
+        map.put("jvm.jit_ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(compilationNanos)));
+        map.put("jvm.cpu_ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(cpuNanos)));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        String allocation = allocatedBytes < 0
+                ? "n/a" : MessageFormat.format("{0,number,#.#} MB/s", allocationRate() / BYTES_PER_MB);
+        return MessageFormat.format(
+                "jvm\t: gc={0} in {1} ms, allocation={2}, jit={3} ms, cpu={4,number,#.#%}",
+                gcCount,
+                TimeUnit.NANOSECONDS.toMillis(gcNanos),
+                allocation,
+                TimeUnit.NANOSECONDS.toMillis(compilationNanos),
+                cpuUsage());
+    }
+
+    /** @return a factory of threads which keep what they allocated in the totals once they end. */
+    static ThreadFactory accounting(final ThreadFactory factory) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return factory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runnable.run();
+                        } finally {
+                            retire();
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /** A sample taken while the thread retires may count its bytes twice, which is rare and small against a run. */
+    private static void retire() {
+        com.sun.management.ThreadMXBean hotspot = allocationBean();
+        if (hotspot == null) return;
+        long bytes = hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+        if (bytes > 0) RETIRED_BYTES.addAndGet(bytes);
+    }
+
+    private static long totalAllocatedBytes() {
+        com.sun.management.ThreadMXBean hotspot = allocationBean();
+        if (hotspot == null) return 0L;
+        long total = 0L;
+        for (long bytes : hotspot.getThreadAllocatedBytes(hotspot.getAllThreadIds())) {
+            if (bytes > 0) total += bytes; // -1 for threads died since listed
+        }
+        return total + RETIRED_BYTES.get(); // read last, so threads died since listed have retired into it
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) return null;
+        return hotspot;
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof com.sun.management.OperatingSystemMXBean)) return 0L;
+        return Math.max(0L, ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime());
+    }
+}
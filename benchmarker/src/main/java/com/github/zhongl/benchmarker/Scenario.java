@@ -0,0 +1,15 @@
+package com.github.zhongl.benchmarker;
+
+import java.util.Map;
+
+/**
+ * {@link Scenario} sets up the {@link Benchmarker} of an {@link Agent}. Implementations should have a public no-arg
+ * constructor, and be on the class path of every agent.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface Scenario {
+
+    /** @param parameters the same for every agent of a run. */
+    Benchmarker create(Map<String, String> parameters) throws Exception;
+}
@@ -0,0 +1,10 @@
+package com.github.zhongl.benchmarker;
+
+/**
+ * {@link SessionFactory} creates the state of a new session, or null once no more sessions should start.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface SessionFactory<S> {
+    S create();
+}
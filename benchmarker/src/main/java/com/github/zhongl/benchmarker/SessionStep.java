@@ -0,0 +1,10 @@
+package com.github.zhongl.benchmarker;
+
+/**
+ * {@link SessionStep} is a blocking call made by a session, e.g. login, which may read and change the state of it.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface SessionStep<S> {
+    void call(S session) throws Exception;
+}
@@ -0,0 +1,161 @@
+package com.github.zhongl.benchmarker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * {@link Sessions} script a sequence of steps each session goes through, e.g. login, query then update, with think
+ * times between them, and start a session per async call:
+ * <pre>
+ * Sessions&lt;User&gt; shop = new Sessions&lt;User&gt;("shop", users, 8)
+ *         .step("login", login).think(1, SECONDS)
+ *         .step("query", query).think(500, 1500, MILLISECONDS)
+ *         .step("update", update)
+ *         .pacing(5, SECONDS);
+ * new Benchmarker(shop, 1).inFlight(1000).duration(10, MINUTES).benchmark();
+ * </pre>
+ * Steps run on a few threads of their own, and a thinking session only waits as a scheduled task, so thousands of
+ * sessions need no thread each. Besides each step, named after the script and step (e.g. shop.login), the whole
+ * transaction is recorded under the name of the script as the time spent in its steps, and each session including
+ * think times and pacing as name.session. A failing step ends its session.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Sessions<S> implements AsyncCallableFactory {
+
+    private static final long KEEP_ALIVE_SECONDS = 1L; // threads go away once runs are over
+
+    private final String name;
+    private final SessionFactory<S> factory;
+    private final ScheduledThreadPoolExecutor executor;
+    private final List<String> stepNames = new ArrayList<String>();
+    private final List<SessionStep<S>> steps = new ArrayList<SessionStep<S>>();
+    private final List<long[]> thinks = new ArrayList<long[]>(); // min and max nanos after each step
+    private long pacingNanos;
+
+    private volatile StatisticsCollector collector;
+    private int[] stepIds;
+    private int transactionId;
+
+    /** @param threads to run steps on, as many as calls of steps may block at once. */
+    public Sessions(String name, SessionFactory<S> factory, int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("threads should be positive: " + threads);
+        this.name = name;
+        this.factory = factory;
+        executor = new ScheduledThreadPoolExecutor(threads,
+                new ThreadFactoryBuilder().setNameFormat("session-" + name + "-%d").setDaemon(true).build());
+        executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public Sessions<S> step(String name, SessionStep<S> step) {
+        stepNames.add(this.name + "." + name);
+        steps.add(step);
+        thinks.add(new long[]{0L, 0L});
+        return this;
+    }
+
+    /** Thinks for time after the last step. */
+    public Sessions<S> think(long time, TimeUnit unit) {
+        return think(time, time, unit);
+    }
+
+    /** Thinks for a random time between min and max after the last step. */
+    public Sessions<S> think(long min, long max, TimeUnit unit) {
+        if (steps.isEmpty()) throw new IllegalStateException("think should follow a step");
+        if (min < 0 || max < min) throw new IllegalArgumentException("think time should be in [0, max]: " + min);
+        long[] think = thinks.get(thinks.size() - 1);
+        think[0] = unit.toNanos(min);
+        think[1] = unit.toNanos(max);
+        return this;
+    }
+
+    /** Keeps each session going for at least period, so a session starts no more often than once a period. */
+    public Sessions<S> pacing(long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("pacing should be positive: " + period);
+        pacingNanos = unit.toNanos(period);
+        return this;
+    }
+
+    @Override
+    public AsyncCallable create() {
+        if (collector == null) throw new IllegalStateException("sessions should be run by a Benchmarker");
+        if (steps.isEmpty()) throw new IllegalStateException("sessions should have a step at least");
+        S state = factory.create();
+        return state == null ? null : new Session(state);
+    }
+
+    /** Called by {@link Benchmarker} before any session is created. */
+    void collectTo(StatisticsCollector collector) {
+        stepIds = new int[stepNames.size()];
+        for (int i = 0; i < stepIds.length; i++) stepIds[i] = collector.idOf(stepNames.get(i));
+        transactionId = collector.idOf(name);
+        this.collector = collector;
+    }
+
+    private long thinkNanosAfter(int step) {
+        long[] think = thinks.get(step);
+        if (think[0] == think[1]) return think[0];
+        return think[0] + (long) (ThreadLocalRandom.current().nextDouble() * (think[1] - think[0]));
+    }
+
+    /** A running session moves on as a task of the executor, which orders its steps for memory visibility too. */
+    private final class Session implements AsyncCallable, Named, Runnable {
+        private final S state;
+        private final CompletableFuture<Object> done = new CompletableFuture<Object>();
+        private long begin;
+        private int next;
+        private long responseNanos;
+
+        Session(S state) {this.state = state;}
+
+        @Override
+        public String operation() {return name + ".session";}
+
+        @Override
+        public CompletionStage<?> call() throws Exception {
+            begin = System.nanoTime();
+            executor.execute(this);
+            return done;
+        }
+
+        @Override
+        public void run() {
+            int step = next++;
+            long start = System.nanoTime();
+            try {
+                steps.get(step).call(state);
+            } catch (Throwable t) {
+                long elapse = System.nanoTime() - start;
+                collector.error(stepIds[step], elapse, t);
+                collector.error(transactionId, responseNanos + elapse, t);
+                done.completeExceptionally(t);
+                return;
+            }
+            long elapse = System.nanoTime() - start;
+            collector.elapse(stepIds[step], elapse);
+            responseNanos += elapse;
+
+            long think = thinkNanosAfter(step);
+            if (next < steps.size()) {
+                executor.schedule(this, think, TimeUnit.NANOSECONDS);
+                return;
+            }
+            collector.elapse(transactionId, responseNanos);
+            long wait = Math.max(think, begin + pacingNanos - System.nanoTime());
+            if (wait <= 0) {
+                done.complete(null);
+                return;
+            }
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    done.complete(null);
+                }
+            }, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.zhongl.benchmarker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StackSampler} samples stacks of the threads running or blocked in the benchmarker JVM from the
+ * {@link ThreadMXBean}, and writes them in the collapsed format of flame graphs, a line per distinct stack with its
+ * frames from the root separated by semicolons and the number of samples last, e.g.:
+ * <pre>
+ * java.lang.Thread.run;com.example.Client.get;java.net.SocketInputStream.read 42
+ * </pre>
+ * A thread blocked on a monitor has a last frame of {@value #BLOCKED}. Threads waiting, e.g. idle in a pool, are left
+ * out, and so are virtual threads, which the MXBean does not see.
+ * <p/>
+ * Each sample takes a thread dump, which stops all threads at a safepoint, so sampling slows the run down, and leaf
+ * frames lean towards where compiled code polls for safepoints rather than where time is spent. How long sampling
+ * took, and the processor time of the sampling thread, are kept to be accounted for, see {@link #toMap()}.
+ * Samples are only taken on one thread at a time, e.g. the sampler of {@link Benchmarker#sampleStacks}.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@NotThreadSafe
+public final class StackSampler implements Runnable {
+
+    static final String BLOCKED = "[BLOCKED]";
+
+    private static final int MAX_DEPTH = 128;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<Stack, long[]> counts = new HashMap<Stack, long[]>();
+    private long samples;
+    private long overheadNanos;
+    private long cpuNanos;
+
+    /** Takes a sample. */
+    @Override
+    public void run() {
+        long begin = System.nanoTime();
+        long cpu = cpuTime();
+        long self = Thread.currentThread().getId();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), MAX_DEPTH)) {
+            if (info == null || info.getThreadId() == self) continue; // died since listed, or the sampler
+            Thread.State state = info.getThreadState();
+            if (state != Thread.State.RUNNABLE && state != Thread.State.BLOCKED) continue;
+            StackTraceElement[] frames = info.getStackTrace();
+            if (frames.length == 0) continue;
+            Stack stack = new Stack(frames, state == Thread.State.BLOCKED);
+            long[] count = counts.get(stack);
+            if (count == null) counts.put(stack, count = new long[1]);
+            count[0]++;
+        }
+        samples++;
+        cpuNanos += cpuTime() - cpu;
+        overheadNanos += System.nanoTime() - begin;
+    }
+
+    /** @return samples taken. */
+    public long samples() {return samples;}
+
+    /** @return time spent taking samples, during which the sampled threads were mostly stopped. */
+    public long overheadNanos() {return overheadNanos;}
+
+    /** @return processor time of the sampling thread, or 0 if the JVM does not support measuring it. */
+    public long cpuNanos() {return cpuNanos;}
+
+    /** @return samples of threads, i.e. of lines written, by their collapsed stacks. */
+    public Map<String, Long> collapsed() {
+        Map<String, Long> collapsed = new TreeMap<String, Long>();
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Stack, long[]> entry : counts.entrySet()) {
+            sb.setLength(0);
+            entry.getKey().appendTo(sb);
+            String line = sb.toString();
+            Long count = collapsed.get(line); // frames deeper than MAX_DEPTH are cut, which may collapse stacks
+            collapsed.put(line, (count == null ? 0L : count) + entry.getValue()[0]);
+        }
+        return collapsed;
+    }
+
+    /** Writes collapsed stacks to file, e.g. to render by flamegraph.pl. */
+    public void writeTo(File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            for (Map.Entry<String, Long> entry : collapsed().entrySet()) {
+                out.write(entry.getKey());
+                out.write(' ');
+                out.write(String.valueOf(entry.getValue()));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** @return the figures keyed with sampler. prefixed names, e.g. for the metadata of {@link Results}. */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        map.put("sampler.samples", String.valueOf(samples));
+        map.put("sampler.overhead_ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(overheadNanos)));
+        map.put("sampler.cpu_ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(cpuNanos)));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format("sampler\t: samples={0}, overhead={1,number,#.###} ms ({2,number,#.###} ms each)",
+                samples, overheadNanos / NANOS_PER_MILLI, samples == 0 ? 0 : overheadNanos / NANOS_PER_MILLI / samples);
+    }
+
+    private long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? Math.max(0L, threads.getCurrentThreadCpuTime()) : 0L;
+    }
+
+    /** Frames of a thread dump, innermost first, as a key of counts. */
+    private static final class Stack {
+        private final StackTraceElement[] frames;
+        private final boolean blocked;
+        private final int hash;
+
+        Stack(StackTraceElement[] frames, boolean blocked) {
+            this.frames = frames;
+            this.blocked = blocked;
+            this.hash = Arrays.hashCode(frames) * 31 + (blocked ? 1 : 0);
+        }
+
+        void appendTo(StringBuilder sb) {
+            for (int i = frames.length - 1; i >= 0; i--) {
+                if (i < frames.length - 1) sb.append(';');
+                sb.append(frames[i].getClassName()).append('.').append(frames[i].getMethodName());
+            }
+            if (blocked) sb.append(';').append(BLOCKED);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stack)) return false;
+            Stack that = (Stack) o;
+            return hash == that.hash && blocked == that.blocked && Arrays.equals(frames, that.frames);
+        }
+
+        @Override
+        public int hashCode() {return hash;}
+    }
+}
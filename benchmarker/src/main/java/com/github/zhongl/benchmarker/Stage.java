@@ -0,0 +1,59 @@
+package com.github.zhongl.benchmarker;
+
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Stage} of a {@link LoadProfile}, whose level changes linearly from one value to another over its duration.
+ * Once a run passed it, it holds the statistics recorded during it.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Stage {
+
+    private final String name;
+    private final double from;
+    private final double to;
+    private final long durationNanos;
+    private volatile Collection<Statistics> statistics = Collections.emptyList();
+
+    Stage(String name, double from, double to, long durationNanos) {
+        if (from < 0 || to < 0) throw new IllegalArgumentException("level should not be negative");
+        if (durationNanos <= 0) throw new IllegalArgumentException("duration should be positive: " + durationNanos);
+        this.name = name;
+        this.from = from;
+        this.to = to;
+        this.durationNanos = durationNanos;
+    }
+
+    public String name() {return name;}
+
+    public long durationNanos() {return durationNanos;}
+
+    public Collection<Statistics> statistics() {return statistics;}
+
+    /** @return calls done per second during this stage. */
+    public double throughput() {
+        long count = 0;
+        for (Statistics s : statistics) count += s.latency().count() + s.errorCount();
+        return count * 1.0 * TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+
+    double levelAt(long offsetNanos) {
+        return from + (to - from) * Math.min(1.0, Math.max(0.0, offsetNanos * 1.0 / durationNanos));
+    }
+
+    double maxLevel() {return Math.max(from, to);}
+
+    void statistics(Collection<Statistics> statistics) {this.statistics = statistics;}
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(MessageFormat.format("{0}\t: throughput={1,number,#.##}/s",
+                name, throughput()));
+        for (Statistics s : statistics) sb.append('\n').append(s);
+        return sb.toString();
+    }
+}
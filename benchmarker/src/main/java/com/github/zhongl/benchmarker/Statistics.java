@@ -1,39 +1,173 @@
 package com.github.zhongl.benchmarker;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
-/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+/**
+ * {@link Statistics} of an operation. Besides the latency measured from the actual start of calls, calls issued on a
+ * fixed schedule also have a corrected latency measured from their intended start, which includes the time they had
+ * to wait behind slow calls (coordinated omission).
+ * <p/>
+ * Failed calls are counted per exception type, and their latency is kept apart from the one of successful calls. Only
+ * a few of the errors themselves are kept as samples, which are neither subtracted nor serialized.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
 public class Statistics {
 
+    static final int MAX_ERROR_SAMPLES_PER_OPERATION = 8;
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
     private final String operation;
-    private volatile int doneCount;
-    private volatile int errorCount;
-    private volatile long minElapse;
-    private volatile long maxElapse;
-    private volatile long totalElapse;
+    private final Histogram latency = new Histogram();
+    private final Histogram corrected = new Histogram();
+    private final Histogram errorLatency = new Histogram();
+    private final Map<String, Long> errorTypes = new TreeMap<String, Long>();
+    private final List<Throwable> errorSamples = new ArrayList<Throwable>();
+    private volatile long errorCount;
 
     public Statistics(String operation) {this.operation = operation;}
 
-    public void addElapse(long elapseMillis) {
-        totalElapse += elapseMillis;
-        doneCount++;
-        minElapse = Math.min(minElapse, elapseMillis);
-        maxElapse = Math.max(maxElapse, elapseMillis);
+    public void addElapse(long elapseNanos) {
+        latency.record(elapseNanos);
     }
 
-    @Override
-    public String toString() {
-        return MessageFormat.format("{0}\t: {1}/{2}={3}, ({4}, {5}), error<{6}>",
-                operation,
-                totalElapse,
-                doneCount,
-                (totalElapse / doneCount),
-                minElapse,
-                maxElapse,
-                errorCount);
+    public void addElapse(long elapseNanos, long correctedNanos) {
+        latency.record(elapseNanos);
+        corrected.record(correctedNanos);
     }
 
     public void addError(Throwable t) {
         errorCount++;
+        addErrorType(t.getClass().getName(), 1L);
+        addErrorSample(t);
+    }
+
+    /** Records a call failed after elapseNanos. */
+    public void addError(long elapseNanos, Throwable t) {
+        addError(t);
+        errorLatency.record(elapseNanos);
+    }
+
+    /** Merges other's samples of the same operation into this. */
+    public void add(Statistics other) {
+        if (!operation.equals(other.operation))
+            throw new IllegalArgumentException("can't merge " + other.operation + " into " + operation);
+        add(other.latency, other.corrected, other.errorCount);
+        errorLatency.add(other.errorLatency);
+        for (Map.Entry<String, Long> entry : other.errorTypes.entrySet())
+            addErrorType(entry.getKey(), entry.getValue());
+        for (Throwable t : other.errorSamples) addErrorSample(t);
+    }
+
+    /** Removes other's samples, which were recorded earlier into this, e.g. during warm-up. */
+    public void subtract(Statistics other) {
+        if (!operation.equals(other.operation))
+            throw new IllegalArgumentException("can't subtract " + other.operation + " from " + operation);
+        latency.subtract(other.latency);
+        corrected.subtract(other.corrected);
+        errorLatency.subtract(other.errorLatency);
+        for (Map.Entry<String, Long> entry : other.errorTypes.entrySet())
+            addErrorType(entry.getKey(), -entry.getValue());
+        errorCount -= other.errorCount;
+    }
+
+    void add(Histogram latency, Histogram corrected, long errorCount) {
+        this.latency.add(latency);
+        if (corrected != null) this.corrected.add(corrected);
+        this.errorCount += errorCount;
+    }
+
+    /** Merges failures recorded elsewhere, errorLatency or type may be null if there is none. */
+    void addErrors(Histogram errorLatency, String type, long count) {
+        if (errorLatency != null) this.errorLatency.add(errorLatency);
+        if (type != null) addErrorType(type, count);
+    }
+
+    void addErrorSample(Throwable t) {
+        if (errorSamples.size() < MAX_ERROR_SAMPLES_PER_OPERATION) errorSamples.add(t);
+    }
+
+    private void addErrorType(String type, long count) {
+        Long current = errorTypes.get(type);
+        long sum = (current == null ? 0L : current) + count;
+        if (sum == 0) errorTypes.remove(type);
+        else errorTypes.put(type, sum);
+    }
+
+    public String operation() {return operation;}
+
+    /** @return a copy of latency histogram in nanoseconds. */
+    public Histogram latency() {return latency.copy();}
+
+    /** @return a copy of latency histogram measured from intended start in nanoseconds, empty in closed-loop runs. */
+    public Histogram correctedLatency() {return corrected.copy();}
+
+    public long errorCount() {return errorCount;}
+
+    /** @return a copy of latency histogram of failed calls in nanoseconds. */
+    public Histogram errorLatency() {return errorLatency.copy();}
+
+    /** @return error counts by class name of the exceptions. */
+    public Map<String, Long> errorTypes() {return Collections.unmodifiableMap(new TreeMap<String, Long>(errorTypes));}
+
+    /** @return a few of the errors with their stack traces, at most {@value #MAX_ERROR_SAMPLES_PER_OPERATION}. */
+    public List<Throwable> errorSamples() {return Collections.unmodifiableList(new ArrayList<Throwable>(errorSamples));}
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(operation);
+        latency.writeTo(out);
+        corrected.writeTo(out);
+        out.writeLong(errorCount);
+        errorLatency.writeTo(out);
+        out.writeInt(errorTypes.size());
+        for (Map.Entry<String, Long> entry : errorTypes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    public static Statistics readFrom(DataInput in) throws IOException {
+        return readFrom(in, true);
+    }
+
+    /** @param errorDetails false to read what was written before error latency and types were. */
+    static Statistics readFrom(DataInput in, boolean errorDetails) throws IOException {
+        Statistics statistics = new Statistics(in.readUTF());
+        statistics.add(Histogram.readFrom(in), Histogram.readFrom(in), in.readLong());
+        if (!errorDetails) return statistics;
+        statistics.errorLatency.add(Histogram.readFrom(in));
+        for (int i = in.readInt(); i > 0; i--) statistics.addErrorType(in.readUTF(), in.readLong());
+        return statistics;
+    }
+
+    @Override
+    public String toString() {
+        String summary = MessageFormat.format("{0}\t: {1}, error<{2}>", operation, summary(latency), errorCount);
+        if (corrected.count() > 0)
+            summary += MessageFormat.format("\n{0}\t: corrected {1}", operation, summary(corrected));
+        if (errorCount > 0)
+            summary += MessageFormat.format("\n{0}\t: errors {1}, {2}", operation, errorTypes, summary(errorLatency));
+        return summary;
+    }
+
+    private static String summary(Histogram histogram) {
+        return MessageFormat.format("count={0}, mean={1}, p50={2}, p90={3}, p99={4}, p99.9={5}, max={6} (ms)",
+                histogram.count(),
+                millis(histogram.mean()),
+                millis(histogram.valueAtPercentile(50)),
+                millis(histogram.valueAtPercentile(90)),
+                millis(histogram.valueAtPercentile(99)),
+                millis(histogram.valueAtPercentile(99.9)),
+                millis(histogram.max()));
+    }
+
+    private static String millis(double nanos) {
+        return MessageFormat.format("{0,number,#.###}", nanos / NANOS_PER_MILLI);
     }
 }
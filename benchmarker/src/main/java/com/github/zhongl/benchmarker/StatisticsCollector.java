@@ -1,82 +1,318 @@
 package com.github.zhongl.benchmarker;
 
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-
-/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
-public class StatisticsCollector extends Thread {
-    private final BlockingQueue<Message> mailbox = new LinkedBlockingQueue<Message>();
-    private final Map<String, Statistics> statisticsMap = new HashMap<String, Statistics>();
-    private volatile boolean running = true;
-
-    @Override
-    public void run() {
-        while (running) {
-            try {
-                Message message = mailbox.poll(500, TimeUnit.MILLISECONDS);
-                if (message == null) continue;
-                Statistics statistics = statisticsMap.get(message.operation);
-                if (statistics == null) {
-                    statistics = new Statistics(message.operation);
-                    statisticsMap.put(message.operation, statistics);
-                }
-                if (message instanceof Elapse) {
-                    statistics.addElapse(((Elapse) message).elapseMillis);
-                }
-                if (message instanceof Error) {
-                    statistics.addError(((Error) message).t);
-                }
-            } catch (InterruptedException e) {
-                // continue
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link StatisticsCollector} records into a stripe owned by the calling thread, so recording neither allocates (after
+ * the first record of an operation) nor contends. Stripes are merged only when a {@link #snapshot()} is taken. Those of
+ * threads ended are folded into a retired stripe then, or once stripes have doubled since, so short-lived threads, e.g.
+ * virtual ones or those completing async calls, do not pile them up. Thousands of threads recording all along, e.g.
+ * virtual workers of a benchmarker, share a fixed table of stripes instead, see {@link #shareStripes(int)}.
+ * <p/>
+ * Operations are interned into int ids, resolve them once by {@link #idOf(String)} or {@link #idOf(Class)} and record
+ * with the id on hot paths.
+ * <p/>
+ * Errors are counted per exception type the same way, so a flood of failures costs no more than successes. Only the
+ * first error of each type, per operation and thread, is kept as a sample with its stack trace, up to
+ * {@value #MAX_ERROR_SAMPLES_IN_ALL} over all operations, of which a snapshot keeps at most
+ * {@value Statistics#MAX_ERROR_SAMPLES_PER_OPERATION} per operation.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@ThreadSafe
+public class StatisticsCollector {
+    static final int MAX_ERROR_SAMPLES_IN_ALL = 64;
+    private static final int MIN_FOLD_STRIPES = 64;
+    private static final long NOT_MEASURED = Long.MIN_VALUE;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final List<String> operations = new CopyOnWriteArrayList<String>();
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<Stripe>();
+    private final Stripe retired = new Stripe(null); // of threads ended, guarded by itself
+    private int foldAt = MIN_FOLD_STRIPES; // guarded by retired
+    private volatile Stripe[] shared; // null unless threads share stripes
+    private final List<String> errorTypes = new CopyOnWriteArrayList<String>();
+    private final AtomicInteger errorSamples = new AtomicInteger();
+
+    private final ClassValue<Integer> errorTypeIds = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            synchronized (errorTypes) {
+                errorTypes.add(type.getName()); // a class is computed once, so never twice in the list
+                return errorTypes.size() - 1;
+            }
+        }
+    };
+
+    private final ClassValue<Integer> classIds = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return idOf(type.getName());
+        }
+    };
+
+    private final ThreadLocal<Stripe> localStripe = new ThreadLocal<Stripe>() {
+        @Override
+        protected Stripe initialValue() {
+            Stripe stripe = new Stripe(Thread.currentThread());
+            stripes.add(stripe);
+            synchronized (retired) {
+                if (stripes.size() >= foldAt) foldEnded();
             }
+            return stripe;
+        }
+    };
+
+    public int idOf(String operation) {
+        Integer id = ids.get(operation);
+        if (id != null) return id;
+        synchronized (operations) {
+            id = ids.get(operation);
+            if (id != null) return id;
+            id = operations.size();
+            operations.add(operation);
+            ids.put(operation, id);
+            return id;
         }
     }
 
-    public Collection<Statistics> haltAndGetStatistics() throws InterruptedException {
-        running = false;
-        join();
-        return statisticsMap.values();
+    public int idOf(Class<?> type) {
+        return classIds.get(type);
+    }
+
+    /** @return stripes of threads not folded yet, alive or not. */
+    int stripes() {
+        return stripes.size();
+    }
+
+    /** @return the operation interned as id. */
+    String nameOf(int id) {
+        return operations.get(id);
     }
 
-    public void elapse(String operation, long elapseMillis) {
-        mailbox.offer(new Elapse(operation, elapseMillis));
+    /**
+     * Makes threads record into a table of at least stripes stripes shared by their ids, rather than into a stripe
+     * each, at the cost of a lock per record, so neither memory nor snapshots grow with thousands of threads recording
+     * all along, e.g. virtual ones. Called before any record.
+     */
+    void shareStripes(int stripes) {
+        if (stripes <= 0) throw new IllegalArgumentException("stripes should be positive: " + stripes);
+        Stripe[] table = new Stripe[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < table.length; i++) table[i] = new Stripe(null);
+        this.stripes.addAll(Arrays.asList(table));
+        shared = table;
+    }
+
+    public void elapse(int operation, long elapseNanos) {
+        record(operation, elapseNanos, NOT_MEASURED, null);
+    }
+
+    /** Records a call issued on a fixed schedule, correctedNanos is measured from its intended start. */
+    public void elapse(int operation, long elapseNanos, long correctedNanos) {
+        record(operation, elapseNanos, correctedNanos, null);
+    }
+
+    public void error(int operation, Throwable t) {
+        record(operation, NOT_MEASURED, NOT_MEASURED, t);
+    }
+
+    /** Records a call failed after elapseNanos, apart from the latency of successful calls. */
+    public void error(int operation, long elapseNanos, Throwable t) {
+        record(operation, elapseNanos, NOT_MEASURED, t);
+    }
+
+    /** Records a success if t is null, or else a failure. */
+    private void record(int operation, long elapseNanos, long correctedNanos, Throwable t) {
+        Stripe[] table = shared;
+        if (table == null) {
+            record(localStripe.get().cell(operation), elapseNanos, correctedNanos, t);
+            return;
+        }
+        Stripe stripe = table[(int) Thread.currentThread().getId() & (table.length - 1)]; // ids go one by one
+        stripe.lock.lock();
+        try {
+            record(stripe.cell(operation), elapseNanos, correctedNanos, t);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private void record(Cell cell, long elapseNanos, long correctedNanos, Throwable t) {
+        if (t == null) {
+            cell.latency.record(elapseNanos);
+            if (correctedNanos != NOT_MEASURED) cell.corrected().record(correctedNanos);
+            return;
+        }
+        countError(cell, t);
+        if (elapseNanos != NOT_MEASURED) cell.errorLatency().record(elapseNanos);
+    }
+
+    private void countError(Cell cell, Throwable t) {
+        cell.errors.lazySet(cell.errors.get() + 1);
+        if (cell.countErrors(errorTypeIds.get(t.getClass()), 1L) == 1
+                && errorSamples.incrementAndGet() <= MAX_ERROR_SAMPLES_IN_ALL) cell.sample(t);
+    }
+
+    public void elapse(String operation, long elapseNanos) {
+        elapse(idOf(operation), elapseNanos);
     }
 
     public void error(String opertion, Throwable t) {
-        t.printStackTrace();
-        mailbox.offer(new Error(opertion, t));
+        error(idOf(opertion), t);
     }
 
-    private abstract static class Message {
+    /**
+     * Merges all stripes. It may be taken while recording, but only reflects every record made before if those
+     * recording threads are known to be done, e.g. after joining them.
+     */
+    public Collection<Statistics> snapshot() {
+        List<Statistics> snapshot = new ArrayList<Statistics>();
+        synchronized (retired) { // no stripe is folded meanwhile, so none is merged twice or missed
+            foldEnded();
+            for (int id = 0; id < operations.size(); id++) {
+                Statistics statistics = new Statistics(operations.get(id));
+                boolean recorded = merge(retired.peek(id), statistics);
+                for (Stripe stripe : stripes) recorded |= merge(stripe.peek(id), statistics);
+                if (recorded) snapshot.add(statistics);
+            }
+        }
+        return snapshot;
+    }
 
-        public final String operation;
+    /** @return false if cell is null, i.e. nothing recorded. */
+    private boolean merge(Cell cell, Statistics statistics) {
+        if (cell == null) return false;
+        statistics.add(cell.latency, cell.corrected, cell.errors.get());
+        AtomicLongArray types = cell.errorTypes;
+        for (int type = 0; type < types.length(); type++) {
+            long count = types.get(type);
+            if (count > 0) statistics.addErrors(null, errorTypes.get(type), count);
+        }
+        statistics.addErrors(cell.errorLatency, null, 0L);
+        for (Throwable t : cell.samples) statistics.addErrorSample(t);
+        return true;
+    }
 
-        public Message(String operation) {
-            this.operation = operation;
+    /** Folds stripes of threads ended into retired, under its lock. */
+    private void foldEnded() {
+        Set<Stripe> ended = new HashSet<Stripe>();
+        for (Stripe stripe : stripes) {
+            if (stripe.owner == null || stripe.owner.isAlive()) continue; // ended threads recorded all before
+            for (int id = 0; id < operations.size(); id++) {
+                Cell cell = stripe.peek(id);
+                if (cell != null) retired.cell(id).add(cell);
+            }
+            ended.add(stripe);
         }
+        if (!ended.isEmpty()) stripes.removeAll(ended);
+        foldAt = Math.max(MIN_FOLD_STRIPES, stripes.size() * 2);
     }
 
-    private static class Error extends Message {
+    /** Cells of a thread by operation, a shared or the retired stripe is owned by whoever holds its lock. */
+    private static class Stripe {
 
-        public final Throwable t;
+        final Thread owner; // null for a shared or the retired stripe
+        final Lock lock;    // of a shared stripe, the retired one is guarded by itself
+        private volatile Cell[] cells = new Cell[8];
 
-        public Error(String opertion, Throwable t) {
-            super(opertion);
-            this.t = t;
+        Stripe(Thread owner) {
+            this.owner = owner;
+            this.lock = owner == null ? new ReentrantLock() : null; // not a monitor, which pins virtual threads
+        }
+
+        /** Only called by the owner thread. */
+        Cell cell(int operation) {
+            Cell[] current = cells;
+            if (operation >= current.length) {
+                Cell[] grown = new Cell[Math.max(operation + 1, current.length * 2)];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                cells = current = grown;
+            }
+            Cell cell = current[operation];
+            if (cell == null) {
+                cell = new Cell();
+                current[operation] = cell;
+                cells = current; // publish the new cell to readers
+            }
+            return cell;
+        }
+
+        Cell peek(int operation) {
+            Cell[] current = cells;
+            return operation < current.length ? current[operation] : null;
         }
     }
 
-    private static class Elapse extends Message {
+    private static class Cell {
+        private static final AtomicLongArray NO_ERROR_TYPES = new AtomicLongArray(0);
+        private static final Throwable[] NO_SAMPLES = new Throwable[0];
+
+        final Histogram latency = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+        volatile Histogram corrected; // closed-loop runs never record here, so allocate it lazily
+        volatile Histogram errorLatency;
+        volatile AtomicLongArray errorTypes = NO_ERROR_TYPES; // counts indexed by type id
+        volatile Throwable[] samples = NO_SAMPLES;
 
-        public final long elapseMillis;
+        /** Only called by the owner thread. */
+        Histogram corrected() {
+            if (corrected == null) corrected = new Histogram();
+            return corrected;
+        }
+
+        /** Only called by the owner thread. */
+        Histogram errorLatency() {
+            if (errorLatency == null) errorLatency = new Histogram();
+            return errorLatency;
+        }
+
+        /** Only called by the owner thread, @return the count of type after these. */
+        long countErrors(int type, long errors) {
+            AtomicLongArray current = errorTypes;
+            if (type >= current.length()) {
+                AtomicLongArray grown = new AtomicLongArray(Math.max(type + 1, current.length() * 2));
+                for (int i = 0; i < current.length(); i++) grown.set(i, current.get(i));
+                errorTypes = current = grown;
+            }
+            long count = current.get(type) + errors;
+            current.lazySet(type, count);
+            return count;
+        }
+
+        /** Only called by the owner thread, with other of a thread ended. */
+        void add(Cell other) {
+            latency.add(other.latency);
+            if (other.corrected != null) corrected().add(other.corrected);
+            if (other.errorLatency != null) errorLatency().add(other.errorLatency);
+            errors.lazySet(errors.get() + other.errors.get());
+            AtomicLongArray types = other.errorTypes;
+            for (int type = 0; type < types.length(); type++) {
+                long count = types.get(type);
+                if (count > 0) countErrors(type, count);
+            }
+            for (Throwable t : other.samples) sample(t);
+        }
 
-        public Elapse(String operation, long elapseMillis) {
-            super(operation);
-            this.elapseMillis = elapseMillis;
+        /** Only called by the owner thread. */
+        void sample(Throwable t) {
+            Throwable[] grown = new Throwable[samples.length + 1];
+            System.arraycopy(samples, 0, grown, 0, samples.length);
+            grown[samples.length] = t;
+            samples = grown;
         }
     }
 }
@@ -0,0 +1,47 @@
+package com.github.zhongl.benchmarker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link SteadyState} tells a run has settled once throughput and p99 latency of the last few intervals all stay
+ * within a tolerance of their mean.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@NotThreadSafe
+final class SteadyState {
+
+    private final double tolerance;
+    private final long[] throughputs;
+    private final long[] p99s;
+    private int offered;
+
+    SteadyState(int windows, double tolerance) {
+        if (windows < 2) throw new IllegalArgumentException("windows should be at least 2: " + windows);
+        if (tolerance <= 0) throw new IllegalArgumentException("tolerance should be positive: " + tolerance);
+        this.tolerance = tolerance;
+        this.throughputs = new long[windows];
+        this.p99s = new long[windows];
+    }
+
+    /** @return true if the last windows intervals, including this one, are steady. */
+    boolean offer(long throughput, long p99) {
+        throughputs[offered % throughputs.length] = throughput;
+        p99s[offered % p99s.length] = p99;
+        offered++;
+        return offered >= throughputs.length && settled(throughputs) && settled(p99s);
+    }
+
+    private boolean settled(long[] values) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        double sum = 0;
+        for (long value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+        double mean = sum / values.length;
+        return mean > 0 && (max - min) <= mean * tolerance;
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.zhongl.benchmarker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TimeSeriesWriter} streams a row per operation of each interval, as CSV or JSON lines, and flushes it at once,
+ * so a long run can be plotted while it is going on. Latencies are in milliseconds. Each row also has what the
+ * benchmarker JVM did during the interval, the same for every operation of it.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@NotThreadSafe
+public final class TimeSeriesWriter implements IntervalListener, Closeable {
+
+    private static final String[] COLUMNS = {
+            "elapsed_ms", "operation", "count", "throughput", "errors", "error_rate",
+            "mean_ms", "p50_ms", "p90_ms", "p99_ms", "p99_9_ms", "max_ms", "corrected_p99_ms",
+            "gc_count", "gc_ms", "alloc_mb_per_s", "jit_ms", "cpu_usage"
+    };
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final PrintWriter out;
+    private final boolean json;
+
+    private TimeSeriesWriter(Writer writer, boolean json) {
+        this.out = new PrintWriter(writer);
+        this.json = json;
+        if (!json) {
+            for (int i = 0; i < COLUMNS.length; i++) out.print(i == 0 ? COLUMNS[i] : "," + COLUMNS[i]);
+            out.println();
+            out.flush();
+        }
+    }
+
+    public static TimeSeriesWriter csv(Writer writer) {return new TimeSeriesWriter(writer, false);}
+
+    public static TimeSeriesWriter jsonLines(Writer writer) {return new TimeSeriesWriter(writer, true);}
+
+    @Override
+    public void onInterval(long elapsedNanos, long durationNanos, Collection<Statistics> statistics,
+                           RuntimeSample runtime) {
+        for (Statistics s : statistics) {
+            Histogram latency = s.latency();
+            long count = latency.count();
+            long errors = s.errorCount();
+            Object[] values = {
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    json ? jsonQuoted(s.operation()) : csvQuoted(s.operation()),
+                    count,
+                    decimal(count * 1.0 * TimeUnit.SECONDS.toNanos(1) / durationNanos),
+                    errors,
+                    decimal(count + errors == 0 ? 0 : errors * 1.0 / (count + errors)),
+                    millis(latency.mean()),
+                    millis(latency.valueAtPercentile(50)),
+                    millis(latency.valueAtPercentile(90)),
+                    millis(latency.valueAtPercentile(99)),
+                    millis(latency.valueAtPercentile(99.9)),
+                    millis(latency.max()),
+                    millis(s.correctedLatency().valueAtPercentile(99)),
+                    runtime.gcCount(),
+                    millis(runtime.gcNanos()),
+                    runtime.allocatedBytes() < 0 ? "-1" : decimal(runtime.allocationRate() / BYTES_PER_MB),
+                    millis(runtime.compilationNanos()),
+                    decimal(runtime.cpuUsage())
+            };
+            if (json) printJson(values);
+            else printCsv(values);
+        }
+        out.flush();
+    }
+
+    /** @throws IOException if any row failed to be written. */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (out.checkError()) throw new IOException("failed to write time series");
+    }
+
+    private void printCsv(Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.print(',');
+            out.print(values[i]);
+        }
+        out.println();
+    }
+
+    private void printJson(Object[] values) {
+        out.print('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.print(',');
+            out.print('"');
+            out.print(COLUMNS[i]);
+            out.print("\":");
+            out.print(values[i]);
+        }
+        out.println('}');
+    }
+
+    private static String csvQuoted(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonQuoted(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String millis(double nanos) {return decimal(nanos / NANOS_PER_MILLI);}
+
+    private static String decimal(double value) {return String.format(Locale.ROOT, "%.3f", value);}
+}
@@ -0,0 +1,11 @@
+package com.github.zhongl.benchmarker;
+
+/**
+ * {@link Timed} is a callable asking to be issued at an offset from the start of a run, e.g. replaying the arrival
+ * of a recorded request, see {@link Benchmarker#timed()}.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public interface Timed {
+    long offsetNanos();
+}
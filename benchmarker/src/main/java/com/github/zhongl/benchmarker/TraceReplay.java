@@ -0,0 +1,164 @@
+package com.github.zhongl.benchmarker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link TraceReplay} re-issues requests recorded in a trace file with their original inter-arrival gaps, optionally
+ * sped up, when run by a {@link Benchmarker#timed()} benchmarker:
+ * <pre>
+ * new Benchmarker(new TraceReplay(new File("prod.trace"), handler).speedUp(2), 64).timed().benchmark();
+ * </pre>
+ * The trace is mapped into memory a window at a time, and each payload is handed over as a view of the mapping, so a
+ * trace of many gigabytes streams through without being loaded onto the heap. The run ends with the trace.
+ * <p/>
+ * A trace starts with a magic and a format version, then a record per request: its timestamp in nanoseconds, the
+ * length of its payload as an int, and the payload. Timestamps only matter relative to the first one, and should not
+ * decrease. See {@link #writer(File)} to record one.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@NotThreadSafe
+public final class TraceReplay implements CallableFactory, Closeable {
+
+    static final int MAGIC = 0x424d4b54; // BMKT
+    static final short VERSION = 1;
+
+    private static final int HEADER = 6;  // magic and version
+    private static final int RECORD_HEADER = 12; // timestamp and length
+    private static final long DEFAULT_WINDOW = 1L << 30;
+
+    private final ReplayHandler handler;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final long window;
+    private final String operation;
+
+    private double speedUp = 1.0;
+    private MappedByteBuffer mapped;
+    private long mappedFrom;
+    private long position = HEADER;
+    private long first = Long.MIN_VALUE;
+
+    public TraceReplay(File trace, ReplayHandler handler) throws IOException {
+        this(trace, handler, DEFAULT_WINDOW);
+    }
+
+    /** @param window bytes mapped at a time, which the largest record should fit in. */
+    TraceReplay(File trace, ReplayHandler handler, long window) throws IOException {
+        this.handler = handler;
+        this.window = window;
+        this.operation = handler.getClass().getName();
+        file = new RandomAccessFile(trace, "r");
+        channel = file.getChannel();
+        size = channel.size();
+        try {
+            if (size < HEADER || map(0L, HEADER).getInt() != MAGIC) throw new IOException(trace + " is not a trace");
+            short version = mapped.getShort();
+            if (version > VERSION) throw new IOException(trace + " has unsupported version " + version);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Compresses the gaps between requests by factor, e.g. 2 to replay at twice the recorded rate. */
+    public TraceReplay speedUp(double factor) {
+        if (!(factor > 0)) throw new IllegalArgumentException("factor should be positive: " + factor);
+        speedUp = factor;
+        return this;
+    }
+
+    /** @return a call of the next request, or null at the end of the trace. */
+    @Override
+    public Callable<?> create() {
+        if (position + RECORD_HEADER > size) return null;
+        try {
+            ByteBuffer header = map(position, RECORD_HEADER);
+            long timestamp = header.getLong();
+            int length = header.getInt();
+            if (length < 0 || position + RECORD_HEADER + length > size)
+                throw new IOException("truncated record at " + position);
+            if (first == Long.MIN_VALUE) first = timestamp;
+            ByteBuffer payload = map(position + RECORD_HEADER, length).slice();
+            payload.limit(length);
+            position += RECORD_HEADER + length;
+            return new Replay((long) ((timestamp - first) / speedUp), payload.asReadOnlyBuffer());
+        } catch (IOException e) {
+            throw new IllegalStateException("can't read trace", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /** @return a writer of a new trace to file, whose records should be appended in the order of their timestamps. */
+    public static Writer writer(File file) throws IOException {
+        return new Writer(file);
+    }
+
+    /** @return the mapping positioned at offset of the file, remapped if length bytes from there are not mapped. */
+    private ByteBuffer map(long offset, int length) throws IOException {
+        if (length > window) throw new IOException("record of " + length + " bytes exceeds window " + window);
+        if (mapped == null || offset < mappedFrom || offset + length > mappedFrom + mapped.capacity()) {
+            mappedFrom = offset;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(window, size - offset));
+        }
+        mapped.position((int) (offset - mappedFrom));
+        return mapped;
+    }
+
+    private final class Replay implements Callable<Object>, Timed, Named {
+        private final long offsetNanos;
+        private final ByteBuffer payload;
+
+        Replay(long offsetNanos, ByteBuffer payload) {
+            this.offsetNanos = offsetNanos;
+            this.payload = payload;
+        }
+
+        @Override
+        public Object call() throws Exception {return handler.call(payload);}
+
+        @Override
+        public long offsetNanos() {return offsetNanos;}
+
+        @Override
+        public String operation() {return operation;}
+    }
+
+    /** Appends records to a trace. */
+    @NotThreadSafe
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        private Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+        }
+
+        public Writer append(long timestampNanos, byte[] payload) throws IOException {
+            return append(timestampNanos, payload, 0, payload.length);
+        }
+
+        public Writer append(long timestampNanos, byte[] payload, int offset, int length) throws IOException {
+            out.writeLong(timestampNanos);
+            out.writeInt(length);
+            out.write(payload, offset, length);
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.zhongl.benchmarker;
+
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Trial} run of a {@link CapacitySearch} at an offered rate, with what was measured and whether that met the
+ * SLO. Latency is the worst percentile of any operation, corrected for coordinated omission, and the error rate is
+ * the highest of any operation too.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+public final class Trial {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double rate;
+    private final double throughput;
+    private final long latencyNanos;
+    private final double errorRate;
+    private final boolean passed;
+    private final Collection<Statistics> statistics;
+
+    Trial(double rate, double throughput, long latencyNanos, double errorRate, boolean passed,
+          Collection<Statistics> statistics) {
+        this.rate = rate;
+        this.throughput = throughput;
+        this.latencyNanos = latencyNanos;
+        this.errorRate = errorRate;
+        this.passed = passed;
+        this.statistics = statistics;
+    }
+
+    /** @return calls offered per second. */
+    public double rate() {return rate;}
+
+    /** @return calls done per second, successful or not. */
+    public double throughput() {return throughput;}
+
+    public long latencyNanos() {return latencyNanos;}
+
+    public double errorRate() {return errorRate;}
+
+    public boolean passed() {return passed;}
+
+    public Collection<Statistics> statistics() {return statistics;}
+
+    static Trial of(double rate, Collection<Statistics> statistics, long measuredNanos,
+                    double percentile, long limitNanos, double maxErrorRate) {
+        long done = 0, latency = 0;
+        double errorRate = 0;
+        for (Statistics s : statistics) {
+            Histogram histogram = s.correctedLatency();
+            if (histogram.count() == 0) histogram = s.latency();
+            long count = histogram.count() + s.errorCount();
+            done += count;
+            latency = Math.max(latency, histogram.valueAtPercentile(percentile));
+            if (count > 0) errorRate = Math.max(errorRate, s.errorCount() * 1.0 / count);
+        }
+        double throughput = measuredNanos <= 0 ? 0 : done * NANOS_PER_SECOND / measuredNanos;
+        boolean passed = done > 0 && latency <= limitNanos && errorRate <= maxErrorRate;
+        return new Trial(rate, throughput, latency, errorRate, passed, statistics);
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format(
+                "rate={0,number,#.##}/s\t: {1} throughput={2,number,#.##}/s, latency={3,number,#.###} ms, "
+                        + "errors={4,number,#.###%}",
+                rate, passed ? "pass" : "FAIL", throughput, latencyNanos / NANOS_PER_MILLI, errorRate);
+    }
+}
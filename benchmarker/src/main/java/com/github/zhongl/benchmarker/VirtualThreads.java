@@ -0,0 +1,95 @@
+package com.github.zhongl.benchmarker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * {@link VirtualThreads} reaches virtual threads of JDK 21+, and the JFR event streams of JDK 14+ reporting their
+ * anomalies, by reflection, so the benchmarker still builds and runs on older JDKs as long as they are not asked for.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+final class VirtualThreads {
+
+    static final String PINNED = "jdk.VirtualThreadPinned";
+    static final String SUBMIT_FAILED = "jdk.VirtualThreadSubmitFailed";
+
+    private static final Method OF_VIRTUAL = ofVirtual();
+
+    private VirtualThreads() {}
+
+    static boolean supported() {return OF_VIRTUAL != null;}
+
+    static ThreadFactory factory(String prefix) {
+        if (!supported()) throw new UnsupportedOperationException("virtual threads need JDK 21 or later");
+        try {
+            Class<?> type = Class.forName("java.lang.Thread$Builder"); // the implementation is not public
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = type.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) type.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("can't create virtual threads", e);
+        }
+    }
+
+    /**
+     * Records every park of a virtual thread pinned to its carrier, and every failure to schedule one onto a carrier,
+     * as an operation named after the JFR event, so they are reported alongside the calls.
+     *
+     * @return the JFR stream to close after the run.
+     */
+    static Closeable monitorAnomalies(final StatisticsCollector collector) {
+        try {
+            Class<?> type = Class.forName("jdk.jfr.consumer.RecordingStream");
+            final Object stream = type.getConstructor().newInstance();
+            Method enable = type.getMethod("enable", String.class);
+            Object pinned = enable.invoke(stream, PINNED);
+            Class<?> settings = Class.forName("jdk.jfr.EventSettings"); // the implementation is not public
+            settings.getMethod("withThreshold", Duration.class).invoke(pinned, Duration.ZERO);
+            enable.invoke(stream, SUBMIT_FAILED);
+            Method duration = Class.forName("jdk.jfr.consumer.RecordedEvent").getMethod("getDuration");
+            Method onEvent = type.getMethod("onEvent", String.class, Consumer.class);
+            onEvent.invoke(stream, PINNED, record(collector, collector.idOf(PINNED), duration));
+            onEvent.invoke(stream, SUBMIT_FAILED, record(collector, collector.idOf(SUBMIT_FAILED), duration));
+            type.getMethod("startAsync").invoke(stream);
+            return new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        ((AutoCloseable) stream).close();
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("can't stream JFR events of virtual threads", e);
+        }
+    }
+
+    private static Consumer<Object> record(final StatisticsCollector collector, final int operation,
+                                           final Method duration) {
+        return new Consumer<Object>() {
+            @Override
+            public void accept(Object event) {
+                try {
+                    collector.elapse(operation, ((Duration) duration.invoke(event)).toNanos());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private static Method ofVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
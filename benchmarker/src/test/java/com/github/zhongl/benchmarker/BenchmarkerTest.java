@@ -2,26 +2,422 @@ package com.github.zhongl.benchmarker;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
 public class BenchmarkerTest {
 
+    private static volatile Object sink;
+
     @Test
     public void benchmark() throws Exception {
-        CallableFactory callableFactory = new CallableFactory() {
+        new Benchmarker(sleep(50L), 1, 100).benchmark();
+    }
+
+    @Test
+    public void correctCoordinatedOmissionAtFixedRate() throws Exception {
+        // every call takes 20ms but one is intended every 10ms, so calls queue up behind each other
+        Collection<Statistics> statistics = new Benchmarker(sleep(20L), 1, 20).rate(100).benchmark();
+
+        assertThat(statistics.size(), is(1));
+        Statistics sleep = statistics.iterator().next();
+        assertThat(sleep.latency().count(), is(20L));
+        assertThat(sleep.correctedLatency().count(), is(20L));
+        assertThat(sleep.correctedLatency().max(), greaterThan(sleep.latency().max() * 3));
+    }
+
+    @Test
+    public void queueBoundedCallsOfOpenLoopForDuration() throws Exception {
+        // 10000 calls intended per second but 100 done at most, so the dispatcher waits for room rather than queue all
+        Collection<Statistics> statistics = new Benchmarker(sleep(10L), 1).rate(10000).duration(300L, MILLISECONDS)
+                .benchmark();
+
+        Statistics sleep = statistics.iterator().next();
+        assertThat(sleep.latency().count(), lessThan(60L));
+        assertThat(sleep.correctedLatency().max(), greaterThan(MILLISECONDS.toNanos(200L))); // late still measured
+    }
+
+    @Test
+    public void benchmarkForDuration() throws Exception {
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics = new Benchmarker(sleep(10L), 2).duration(500L, MILLISECONDS).benchmark();
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertThat(elapse, allOf(greaterThanOrEqualTo(500L), lessThan(1000L)));
+        // calls issued just before the end still complete, one per thread at most
+        assertThat(statistics.iterator().next().latency().count(), allOf(greaterThan(20L), lessThan(103L)));
+    }
+
+    @Test
+    public void measureUntilStopNotUntilCallsDrained() throws Exception {
+        Benchmarker benchmarker = new Benchmarker(sleep(300L), 2).duration(200L, MILLISECONDS);
+        long begin = System.nanoTime();
+        benchmarker.benchmark();
+        long elapse = System.nanoTime() - begin;
+
+        assertThat(elapse, greaterThanOrEqualTo(MILLISECONDS.toNanos(300L))); // calls issued first still completed
+        assertThat(benchmarker.measuredNanos(), is(MILLISECONDS.toNanos(200L)));
+    }
+
+    @Test
+    public void discardSamplesOfWarmup() throws Exception {
+        Collection<Statistics> statistics = new Benchmarker(sleep(10L), 1)
+                .warmup(500L, MILLISECONDS)
+                .duration(500L, MILLISECONDS)
+                .benchmark();
+
+        assertThat(statistics.iterator().next().latency().count(), allOf(greaterThan(10L), lessThan(70L)));
+    }
+
+    @Test
+    public void keepManyAsyncCallsInFlight() throws Exception {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        AsyncCallableFactory factory = new AsyncCallableFactory() {
+            @Override
+            public AsyncCallable create() {
+                return new AsyncCallable() {
+                    @Override
+                    public CompletionStage<?> call() throws Exception {
+                        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+                        int current = inFlight.incrementAndGet();
+                        if (current > maxInFlight.get()) maxInFlight.set(current);
+                        timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                inFlight.decrementAndGet();
+                                future.complete(null);
+                            }
+                        }, 50L, MILLISECONDS);
+                        return future;
+                    }
+                };
+            }
+        };
+
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics = new Benchmarker(factory, 2, 2000).inFlight(200).benchmark();
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+        timer.shutdown();
+
+        assertThat(statistics.iterator().next().latency().count(), is(2000L));
+        assertThat(statistics.iterator().next().latency().min(), greaterThan(MILLISECONDS.toNanos(45L)));
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(200));
+        assertThat(elapse, lessThan(5000L)); // 2 blocking threads would take 50 seconds
+    }
+
+    @Test
+    public void runOnVirtualThreadsIfSupported() throws Exception {
+        Benchmarker benchmarker = new Benchmarker(sleep(100L), 1000, 2000);
+        if (!VirtualThreads.supported()) {
+            try {
+                benchmarker.virtualThreads();
+                fail("virtual threads should be unsupported before JDK 21");
+            } catch (UnsupportedOperationException expected) { }
+            return;
+        }
+
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics = benchmarker.virtualThreads().benchmark();
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        for (Statistics s : statistics) {
+            if (s.operation().startsWith("jdk.")) continue;
+            assertThat(s.latency().count(), is(2000L));
+        }
+        assertThat(elapse, lessThan(5000L));
+        assertThat(benchmarker.runtime().allocatedBytes(), is(-1L)); // virtual threads are not accounted
+        assertThat(benchmarker.runtime().toString(), containsString("allocation=n/a"));
+    }
+
+    @Test
+    public void reportParksPinningCarriersIfSupported() throws Exception {
+        if (!VirtualThreads.supported()) return;
+        final Object lock = new Object();
+        CallableFactory pinning = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        synchronized (lock) { // parks while holding a monitor pin the carrier
+                            Thread.sleep(5L);
+                        }
+                        return null;
+                    }
+                };
+            }
+        };
+
+        Collection<Statistics> statistics = new Benchmarker(pinning, 4, 200).virtualThreads().benchmark();
+
+        long pinned = 0;
+        for (Statistics s : statistics) {
+            if (s.operation().equals(VirtualThreads.PINNED)) pinned = s.latency().count();
+        }
+        assertThat(pinned, greaterThan(0L));
+    }
+
+    @Test
+    public void drainAsyncCallsAfterProfileEndingAtZero() throws Exception {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger started = new AtomicInteger();
+        AsyncCallableFactory factory = new AsyncCallableFactory() {
+            @Override
+            public AsyncCallable create() {
+                return new AsyncCallable() {
+                    @Override
+                    public CompletionStage<?> call() throws Exception {
+                        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+                        started.incrementAndGet();
+                        timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                future.complete(null);
+                            }
+                        }, 500L, MILLISECONDS); // outlasts the profile
+                        return future;
+                    }
+                };
+            }
+        };
+        LoadProfile profile = new LoadProfile().ramp(4, 0, 300L, MILLISECONDS);
+
+        Collection<Statistics> statistics = new Benchmarker(factory, 2).concurrency(profile).benchmark();
+        timer.shutdown();
+
+        long done = 0;
+        for (Statistics s : statistics) done += s.latency().count();
+        assertThat(done, is((long) started.get()));
+    }
+
+    @Test
+    public void reportStatisticsPerStageOfConcurrency() throws Exception {
+        LoadProfile profile = new LoadProfile().steps(1, 3, 2, 500L, MILLISECONDS);
+        new Benchmarker(sleep(10L), 3).concurrency(profile).benchmark();
+
+        Stage low = profile.stages().get(0);
+        Stage high = profile.stages().get(1);
+        assertThat(low.throughput(), allOf(greaterThan(50.0), lessThan(110.0)));
+        assertThat(high.throughput(), greaterThan(low.throughput() * 2));
+    }
+
+    @Test
+    public void reportStatisticsPerStageOfRate() throws Exception {
+        LoadProfile profile = new LoadProfile().soak(50, 1L, SECONDS).spike(200, 500L, MILLISECONDS);
+        new Benchmarker(sleep(1L), 10).rate(profile).benchmark();
+
+        assertThat(profile.stages().get(0).throughput(), closeTo(50.0, 10.0));
+        assertThat(profile.stages().get(1).throughput(), closeTo(200.0, 40.0));
+    }
+
+    @Test
+    public void createCallablesOnWorkers() throws Exception {
+        final AtomicInteger creators = new AtomicInteger();
+        final AtomicInteger maxCreators = new AtomicInteger();
+        final CallableFactory sleep = sleep(1L);
+        CallableFactory slow = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                int current = creators.incrementAndGet();
+                if (current > maxCreators.get()) maxCreators.set(current);
+                try {
+                    Thread.sleep(10L); // expensive setup
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    creators.decrementAndGet();
+                }
+                return sleep.create();
+            }
+        };
+
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics = new Benchmarker(new FixInstanceSizeFactory(200, slow), 8)
+                .createOnWorkers()
+                .benchmark();
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        Statistics s = statistics.iterator().next();
+        assertThat(s.latency().count(), is(200L));
+        assertThat(s.latency().max(), lessThan(MILLISECONDS.toNanos(10L))); // creation is not timed
+        assertThat(maxCreators.get(), greaterThan(1));
+        assertThat(elapse, lessThan(1500L)); // a single creator would take 2 seconds
+    }
+
+    @Test
+    public void sampleRuntimeOfJvm() throws Exception {
+        CallableFactory allocate = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return sink = new byte[1024 * 1024]; // escapes, so the JIT can't elide it
+                    }
+                };
+            }
+        };
+        Benchmarker benchmarker = new Benchmarker(allocate, 2, 200);
+        benchmarker.benchmark();
+
+        RuntimeSample runtime = benchmarker.runtime();
+        assertThat(runtime.allocatedBytes(), greaterThan(100L * 1024 * 1024));
+        assertThat(runtime.cpuNanos(), greaterThan(0L));
+        assertThat(runtime.cpuUsage(), greaterThan(0.0));
+        assertThat(runtime.toString(), startsWith("jvm\t: gc="));
+    }
+
+    @Test
+    public void timeoutHangingCalls() throws Exception {
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics = new Benchmarker(sleep(60000L), 2, 4)
+                .timeout(50L, MILLISECONDS)
+                .benchmark();
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        Statistics sleep = statistics.iterator().next();
+        assertThat(sleep.latency().count(), is(0L));
+        assertThat(sleep.errorTypes().get(CallTimeoutException.class.getName()), is(4L));
+        assertThat(elapse, lessThan(1000L));
+    }
+
+    @Test
+    public void timeoutAsyncCallsNeverCompleted() throws Exception {
+        AsyncCallableFactory never = new AsyncCallableFactory() {
+            @Override
+            public AsyncCallable create() {
+                return new AsyncCallable() {
+                    @Override
+                    public CompletionStage<?> call() throws Exception {
+                        return new CompletableFuture<Object>();
+                    }
+                };
+            }
+        };
+        Collection<Statistics> statistics = new Benchmarker(never, 1, 10)
+                .inFlight(5)
+                .timeout(50L, MILLISECONDS)
+                .benchmark();
+
+        assertThat(statistics.iterator().next().errorCount(), is(10L));
+    }
+
+    @Test
+    public void runAgainWithStatisticsOfThatRunOnly() throws Exception {
+        Benchmarker benchmarker = new Benchmarker(sleep(1L), 2, 20);
+        benchmarker.benchmark();
+
+        Collection<Statistics> statistics = benchmarker.benchmark();
+
+        assertThat(statistics.iterator().next().latency().count(), is(20L));
+    }
+
+    @Test
+    public void countNoCallOfExhaustedFactory() throws Exception {
+        CallableFactory none = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return null;
+            }
+        };
+        Benchmarker pulled = new Benchmarker(none, 2, 10);
+        Benchmarker dispatched = new Benchmarker(none, 2, 10).rate(1000.0).createOnWorkers();
+
+        for (Benchmarker benchmarker : Arrays.asList(pulled, dispatched)) {
+            assertThat(benchmarker.benchmark().isEmpty(), is(true));
+            assertThat(benchmarker.firstCallNanos(), is(-1L));
+        }
+    }
+
+    @Test
+    public void reportHungCallsAndAbandonThemAfterDraining() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CallableFactory deaf = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        while (true) { // ignores interrupts
+                            try {
+                                if (release.await(10L, SECONDS)) return null;
+                            } catch (InterruptedException ignored) { }
+                        }
+                    }
+                };
+            }
+        };
+        Benchmarker benchmarker = new Benchmarker(deaf, 1, 1)
+                .hungAfter(20L, MILLISECONDS)
+                .drain(200L, MILLISECONDS);
+        try {
+            Collection<Statistics> statistics = benchmarker.benchmark();
+
+            assertThat(benchmarker.abandoned(), is(1L));
+            for (Statistics s : statistics) {
+                if (!s.operation().equals(Benchmarker.HUNG)) continue;
+                assertThat(s.errorCount(), is(1L));
+                assertThat(s.errorSamples().get(0).getStackTrace().length, greaterThan(0));
+                return;
+            }
+            fail("hung call should be reported");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void pullCallsWithoutAllocatingPerCall() throws Exception {
+        final Callable<Object> noop = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return null;
+            }
+        };
+        CallableFactory same = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return noop;
+            }
+        };
+        int times = 1000000;
+        Benchmarker benchmarker = new Benchmarker(same, 4, times);
+        Collection<Statistics> statistics = benchmarker.benchmark();
+
+        assertThat(statistics.iterator().next().latency().count(), is((long) times));
+        assertThat(benchmarker.runtime().allocatedBytes() / times, lessThan(4L)); // tasks and futures took over 10
+    }
+
+    private static CallableFactory sleep(final long millis) {
+        return new CallableFactory() {
             @Override
             public Callable<?> create() {
-                return  new Callable<Object>() {
+                return new Callable<Object>() {
                     @Override
                     public Object call() throws Exception {
-                        Thread.sleep(50L);
+                        Thread.sleep(millis);
                         return null;
                     }
-                }  ;
+                };
             }
         };
-        new Benchmarker(callableFactory, 1, 100).benchmark();
     }
 
     public static void main(String[] args) throws Exception {
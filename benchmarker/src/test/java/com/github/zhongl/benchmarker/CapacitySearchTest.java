@@ -0,0 +1,70 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class CapacitySearchTest {
+
+    @Test
+    public void findRateOfSingleServer() throws Exception {
+        final Semaphore server = new Semaphore(1); // serves a call in 2ms at a time, so at most 500 calls/s
+        CallableFactory factory = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        server.acquire();
+                        try {
+                            Thread.sleep(2L);
+                        } finally {
+                            server.release();
+                        }
+                        return null;
+                    }
+                };
+            }
+        };
+        CapacitySearch search = new CapacitySearch(factory, 16)
+                .slo(99, 50, MILLISECONDS)
+                .trial(200L, MILLISECONDS, 400L, MILLISECONDS)
+                .rates(100, 10, 10000)
+                .precision(0.1, 10);
+
+        Trial best = search.search();
+
+        assertThat(best.passed(), is(true));
+        assertThat(best.rate(), allOf(greaterThanOrEqualTo(200.0), lessThanOrEqualTo(500.0)));
+        assertThat(search.trials().size(), allOf(greaterThan(4), lessThanOrEqualTo(10)));
+        assertThat(search.toString(), containsString("FAIL"));
+    }
+
+    @Test
+    public void noRateMeetsImpossibleSlo() throws Exception {
+        CallableFactory failing = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        throw new IllegalStateException("down");
+                    }
+                };
+            }
+        };
+        CapacitySearch search = new CapacitySearch(failing, 1)
+                .trial(50L, MILLISECONDS, 100L, MILLISECONDS)
+                .rates(100, 25, 1000);
+
+        assertThat(search.search(), is(nullValue()));
+        assertThat(search.trials().size(), is(3)); // 100, 50 and 25
+        assertThat(search.trials().get(0).errorRate(), is(1.0));
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class ComparisonTest {
+
+    @Test
+    public void noRegressionWithinNoise() throws Exception {
+        Comparison comparison = new Comparison(results(10000, 1.0, 1L), results(10000, 1.0, 2L));
+        assertThat(comparison.regressions().size(), is(0));
+    }
+
+    @Test
+    public void flagSlowerLatency() throws Exception {
+        Comparison comparison = new Comparison(results(10000, 1.0, 1L), results(10000, 1.2, 2L));
+        assertThat(comparison.regressions().size(), is(1));
+        assertThat(comparison.regressions().get(0), containsString("p50"));
+    }
+
+    @Test
+    public void flagLowerThroughput() throws Exception {
+        Comparison comparison = new Comparison(results(10000, 1.0, 1L), results(8000, 1.0, 2L));
+        assertThat(comparison.regressions().size(), is(1));
+        assertThat(comparison.regressions().get(0), containsString("throughput"));
+    }
+
+    @Test
+    public void ignoreSignificantButTolerableChange() throws Exception {
+        Comparison comparison = new Comparison(results(100000, 1.0, 1L), results(100000, 1.03, 2L));
+        assertThat(comparison.regressions().size(), is(0));
+    }
+
+    @Test
+    public void mannWhitneyOfIdenticalHistogramsIsZero() throws Exception {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) histogram.record(i * 1000);
+        assertThat(Comparison.mannWhitneyZ(histogram, histogram.copy()), closeTo(0.0, 1e-9));
+    }
+
+    private static Results results(int count, double scale, long seed) {
+        Random random = new Random(seed);
+        Statistics statistics = new Statistics("get");
+        for (int i = 0; i < count; i++) {
+            statistics.addElapse((long) (scale * (1000000 + random.nextGaussian() * 100000))); // ~1ms
+        }
+        return new Results(Arrays.asList(statistics), SECONDS.toNanos(10L));
+    }
+}
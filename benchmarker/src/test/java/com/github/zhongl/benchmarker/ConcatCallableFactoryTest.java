@@ -2,6 +2,14 @@ package com.github.zhongl.benchmarker;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
 /** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
 public class ConcatCallableFactoryTest {
 
@@ -21,4 +29,83 @@ public class ConcatCallableFactoryTest {
         af1.assertCreated(1);
         af2.assertCreated(2);
     }
+
+    @Test
+    public void createCallablesOfEachFactoryInTurn() throws Exception {
+        ConcatCallableFactory callableFactory = new ConcatCallableFactory(
+                new FixInstanceSizeFactory(3, tagged(0)),
+                new FixInstanceSizeFactory(5, tagged(1)),
+                new FixInstanceSizeFactory(2, tagged(2)));
+
+        StringBuilder order = new StringBuilder();
+        Callable<?>[] batch = new Callable<?>[2];
+        for (boolean batched = false; ; batched = !batched) { // across factories either way
+            int size = batched ? callableFactory.create(batch, batch.length)
+                    : (batch[0] = callableFactory.create()) == null ? 0 : 1;
+            if (size == 0) break;
+            for (int i = 0; i < size; i++) order.append(batch[i].call());
+        }
+
+        assertThat(order.toString(), is("0001111122"));
+        assertThat(callableFactory.create(), is(nullValue()));
+    }
+
+    @Test
+    public void keepOrderOfFactoriesOnEachThread() throws Exception {
+        final ConcatCallableFactory callableFactory = new ConcatCallableFactory(
+                new FixInstanceSizeFactory(1000, tagged(0)),
+                new FixInstanceSizeFactory(2000, tagged(1)),
+                new FixInstanceSizeFactory(3000, tagged(2)));
+
+        final List<List<Integer>> orders = new CopyOnWriteArrayList<List<Integer>>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final boolean batched = t % 2 == 0;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<Integer> order = new ArrayList<Integer>();
+                    Callable<?>[] batch = new Callable<?>[16];
+                    try {
+                        for (; ; ) {
+                            int size = batched ? callableFactory.create(batch, batch.length)
+                                    : (batch[0] = callableFactory.create()) == null ? 0 : 1;
+                            if (size == 0) break;
+                            for (int i = 0; i < size; i++) order.add((Integer) batch[i].call());
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    orders.add(order);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        int[] counts = new int[3];
+        for (List<Integer> order : orders) {
+            for (int i = 0; i < order.size(); i++) {
+                if (i > 0) assertThat(order.get(i), greaterThanOrEqualTo(order.get(i - 1))); // never back
+                counts[order.get(i)]++;
+            }
+        }
+        assertThat(orders.size(), is(threads.length));
+        assertThat(counts[0] + "," + counts[1] + "," + counts[2], is("1000,2000,3000"));
+    }
+
+    /** @return a factory of callables returning tag. */
+    private static CallableFactory tagged(final int tag) {
+        return new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return tag;
+                    }
+                };
+            }
+        };
+    }
 }
@@ -0,0 +1,124 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class CoordinatorTest {
+
+    private static volatile boolean initialized; // by NotScenario
+
+    @Test
+    public void mergeStatisticsOfAllAgents() throws Exception {
+        List<Agent> agents = startAgents(3);
+        try {
+            Map<String, String> parameters = Collections.singletonMap("times", "50");
+            Collection<Statistics> statistics = new Coordinator(addressesOf(agents)).run(Sleep.class, parameters);
+
+            assertThat(statistics.size(), is(1));
+            Statistics sleep = statistics.iterator().next();
+            assertThat(sleep.latency().count(), is(150L));
+            assertThat(sleep.latency().min(), greaterThan(0L));
+        } finally {
+            for (Agent agent : agents) agent.close();
+        }
+    }
+
+    @Test
+    public void failIfScenarioCanNotBeCreated() throws Exception {
+        List<Agent> agents = startAgents(2);
+        try {
+            new Coordinator(addressesOf(agents)).run("no.such.Scenario", Collections.<String, String>emptyMap());
+            fail("unknown scenario should fail");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("no.such.Scenario"));
+        } finally {
+            for (Agent agent : agents) agent.close();
+        }
+    }
+
+    @Test
+    public void refuseToInitializeClassesOtherThanScenarios() throws Exception {
+        List<Agent> agents = startAgents(1);
+        try {
+            Map<String, String> parameters = Collections.emptyMap();
+            new Coordinator(addressesOf(agents)).run(NotScenario.class.getName(), parameters);
+            fail("a class other than scenarios should fail");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("not a scenario"));
+            assertThat(initialized, is(false));
+        } finally {
+            for (Agent agent : agents) agent.close();
+        }
+    }
+
+    @Test
+    public void failIfAgentRepliesNothingInTime() throws Exception {
+        ServerSocket hung = new ServerSocket(0, 0, InetAddress.getLoopbackAddress()); // connects, never accepts
+        try {
+            List<InetSocketAddress> agents = Collections.singletonList(
+                    new InetSocketAddress(hung.getInetAddress(), hung.getLocalPort()));
+            Map<String, String> parameters = Collections.singletonMap("times", "1");
+            new Coordinator(agents).replyTimeout(100L, MILLISECONDS).run(Sleep.class, parameters);
+            fail("hung agent should time out");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("no reply"));
+        } finally {
+            hung.close();
+        }
+    }
+
+    public static class NotScenario {
+        static {
+            initialized = true;
+        }
+    }
+
+    public static class Sleep implements Scenario {
+        @Override
+        public Benchmarker create(Map<String, String> parameters) throws Exception {
+            CallableFactory factory = new CallableFactory() {
+                @Override
+                public Callable<?> create() {
+                    return new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            Thread.sleep(1L);
+                            return null;
+                        }
+                    };
+                }
+            };
+            return new Benchmarker(factory, 1, Integer.parseInt(parameters.get("times")));
+        }
+    }
+
+    private static List<Agent> startAgents(int size) throws IOException {
+        List<Agent> agents = new ArrayList<Agent>(size);
+        for (int i = 0; i < size; i++) {
+            Agent agent = new Agent(0);
+            Thread thread = new Thread(agent, "agent-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            agents.add(agent);
+        }
+        return agents;
+    }
+
+    private static List<InetSocketAddress> addressesOf(List<Agent> agents) {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(agents.size());
+        for (Agent agent : agents) addresses.add(new InetSocketAddress("localhost", agent.port()));
+        return addresses;
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.zhongl.benchmarker;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class DataFeederTest {
+
+    @Test
+    public void feedFieldsOfCsvInOrder() throws Exception {
+        DataFeeder feeder = DataFeeder.csv(csv("id,name\n1,alice\r\n\n-2,bob\n3,\n"), true);
+        try {
+            assertThat(feeder.count(), is(3));
+            DataFeeder.Feed feed = feeder.sequential();
+            DataFeeder.Record record = feed.next();
+            assertThat(record.index(), is(0));
+            assertThat(record.toString(), is("1,alice"));
+            assertThat(record.fields(), is(2));
+            assertThat(record.longField(0), is(1L));
+            assertThat(record.field(1).toString(), is("alice"));
+
+            record = feed.next();
+            assertThat(record.longField(0), is(-2L));
+            assertThat(record.field(1).toString(), is("bob"));
+
+            record = feed.next();
+            assertThat(record.fields(), is(2));
+            assertThat(record.field(1).length(), is(0));
+
+            assertThat(feed.next().index(), is(0)); // round and round
+        } finally {
+            feeder.close();
+        }
+    }
+
+    @Test
+    public void feedBinaryRecordsAcrossSegments() throws Exception {
+        File file = File.createTempFile("data", ".bin");
+        file.deleteOnExit();
+        DataFeeder.Writer writer = DataFeeder.writer(file);
+        try {
+            for (int i = 0; i < 20; i++) writer.append(("record-" + i).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            writer.close();
+        }
+        // segments of 16 bytes, so most records straddle them
+        DataFeeder feeder = new DataFeeder(file, false, false, 4);
+        try {
+            assertThat(feeder.count(), is(20));
+            DataFeeder.Feed feed = feeder.sequential();
+            byte[] bytes = new byte[16];
+            for (int i = 0; i < 20; i++) {
+                DataFeeder.Record record = feed.next();
+                assertThat(record.fields(), is(1));
+                record.copyTo(bytes, 0);
+                assertThat(new String(bytes, 0, record.length(), StandardCharsets.UTF_8), is("record-" + i));
+            }
+        } finally {
+            feeder.close();
+        }
+    }
+
+    @Test
+    public void handOutEachRecordOnceAcrossThreads() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) sb.append(i).append('\n');
+        final DataFeeder feeder = DataFeeder.csv(csv(sb.toString()), false);
+        final DataFeeder.Feed feed = feeder.unique();
+        final ConcurrentMap<Long, Boolean> seen = new ConcurrentHashMap<Long, Boolean>();
+        final CountDownLatch done = new CountDownLatch(4);
+        try {
+            for (int t = 0; t < 4; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (DataFeeder.Record r = feed.next(); r != null; r = feed.next()) {
+                                if (seen.putIfAbsent(r.longField(0), false) != null) seen.put(-1L, true);
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            done.await();
+            assertThat(seen.size(), is(1000)); // none twice, which would have added -1
+            assertThat(feed.next(), is(nullValue()));
+        } finally {
+            feeder.close();
+        }
+    }
+
+    @Test
+    public void pickAtRandomWithoutAllocating() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) sb.append(i).append(",payload-").append(i).append('\n');
+        DataFeeder feeder = DataFeeder.csv(csv(sb.toString()), false);
+        try {
+            DataFeeder.Feed feed = feeder.random(42L);
+            long sum = 0;
+            for (int i = 0; i < 10000; i++) sum += feed.next().longField(0); // warms up
+            ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long id = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 100000; i++) {
+                DataFeeder.Record record = feed.next();
+                sum += record.longField(0) + record.field(1).charAt(8);
+            }
+            long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+            assertThat(allocated, lessThan(100000L)); // less than a byte per call
+            assertThat(sum, greaterThan(0L));
+            assertThat(feeder.random(42L).next().index(), is(feeder.random(42L).next().index()));
+        } finally {
+            feeder.close();
+        }
+    }
+
+    @Test
+    public void pickAtRandomIndependentlyPerThread() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) sb.append(i).append('\n');
+        DataFeeder feeder = DataFeeder.csv(csv(sb.toString()), false);
+        try {
+            DataFeeder.Feed feed = feeder.random(42L);
+            List<Integer> first = pickOnNewThread(feed);
+            List<Integer> second = pickOnNewThread(feed);
+
+            assertThat(second.subList(0, 15), is(not(first.subList(1, 16)))); // not the stream shifted by a draw
+            assertThat(second, is(not(first)));
+            assertThat(pickOnNewThread(feeder.random(42L)), is(first));
+        } finally {
+            feeder.close();
+        }
+    }
+
+    @Test
+    public void parseLongFieldsLikeLongParseLong() throws Exception {
+        String line = "-,9223372036854775807,-9223372036854775808,9223372036854775808,\u00e9\n";
+        DataFeeder feeder = DataFeeder.csv(csv(line), false);
+        try {
+            DataFeeder.Record record = feeder.sequential().next();
+            assertThat(record.longField(1), is(Long.MAX_VALUE));
+            assertThat(record.longField(2), is(Long.MIN_VALUE));
+            for (int i : new int[]{0, 3}) {
+                try {
+                    record.longField(i);
+                    fail("should reject " + record.field(i));
+                } catch (NumberFormatException expected) {
+                }
+            }
+            assertThat(record.field(4).length(), is(2)); // the bytes of e acute in UTF-8, as chars
+            assertThat(record.field(4).toString(), is("\u00c3\u00a9"));
+        } finally {
+            feeder.close();
+        }
+    }
+
+    private static List<Integer> pickOnNewThread(final DataFeeder.Feed feed) throws InterruptedException {
+        final List<Integer> picks = new ArrayList<Integer>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 16; i++) picks.add(feed.next().index());
+            }
+        });
+        thread.start();
+        thread.join();
+        return picks;
+    }
+
+    private static File csv(String content) throws IOException {
+        File file = File.createTempFile("data", ".csv");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
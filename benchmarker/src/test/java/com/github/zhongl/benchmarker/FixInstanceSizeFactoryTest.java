@@ -31,4 +31,17 @@ public class FixInstanceSizeFactoryTest {
         }
         assertThat(factory.create(), is(nullValue()));
     }
+
+    @Test
+    public void createInBatchesUpToFixSize() throws Exception {
+        FixInstanceSizeFactory factory = new FixInstanceSizeFactory(10, new AssertCreatedFactory());
+        Callable<?>[] batch = new Callable<?>[4];
+
+        assertThat(factory.create(batch, 4), is(4));
+        assertThat(factory.create(batch, 4), is(4));
+        assertThat(factory.create(batch, 4), is(2));
+        assertThat(batch[1], is(notNullValue()));
+        assertThat(factory.create(batch, 4), is(0));
+        assertThat(factory.create(), is(nullValue()));
+    }
 }
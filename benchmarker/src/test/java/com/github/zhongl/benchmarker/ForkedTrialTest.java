@@ -0,0 +1,89 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class ForkedTrialTest {
+
+    @Test
+    public void runScenarioInForkedJvm() throws Exception {
+        ForkedTrial.Outcome outcome = new ForkedTrial(Spin.class)
+                .jvmOptions("-Xmx64m")
+                .parameter("times", "2000")
+                .run();
+
+        Statistics statistics = outcome.statistics().iterator().next();
+        assertThat(statistics.latency().count(), is(2000L));
+        assertThat(outcome.startupNanos(), greaterThan(0L));
+        assertThat(outcome.firstCallNanos(), greaterThan(outcome.startupNanos()));
+        assertThat(outcome.steadyNanos(), is(-1L));
+        assertThat(outcome.results().metadata().get("startup.nanos"), is(String.valueOf(outcome.startupNanos())));
+    }
+
+    @Test
+    public void measureTimeToSteadyState() throws Exception {
+        ForkedTrial.Outcome outcome = new ForkedTrial(Spin.class)
+                .parameter("seconds", "3")
+                .steadyState(0.5, 2, SECONDS)
+                .run();
+
+        assertThat(outcome.steadyNanos(), greaterThan(outcome.firstCallNanos()));
+        assertThat(outcome.steadyNanos() - outcome.startupNanos(), lessThan(SECONDS.toNanos(3)));
+        assertThat(outcome.measuredNanos(), greaterThan(0L));
+        assertThat(outcome.toString(), containsString("steady="));
+    }
+
+    @Test
+    public void failIfScenarioCanNotBeCreated() throws Exception {
+        try {
+            new ForkedTrial("no.such.Scenario").run();
+            fail("unknown scenario should fail");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("no.such.Scenario"));
+        }
+    }
+
+    @Test
+    public void killForkedJvmAtTimeout() throws Exception {
+        long begin = System.nanoTime();
+        try {
+            new ForkedTrial(Spin.class).parameter("seconds", "60").timeout(1, SECONDS).run();
+            fail("forked JVM running past timeout should fail");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), containsString("timeout"));
+        }
+        assertThat(System.nanoTime() - begin, lessThan(SECONDS.toNanos(30)));
+    }
+
+    public static class Spin implements Scenario {
+        @Override
+        public Benchmarker create(Map<String, String> parameters) throws Exception {
+            CallableFactory factory = new CallableFactory() {
+                @Override
+                public Callable<?> create() {
+                    return new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            long end = System.nanoTime() + 100000L;
+                            while (System.nanoTime() < end) ;
+                            return null;
+                        }
+                    };
+                }
+            };
+            if (parameters.containsKey("seconds")) {
+                return new Benchmarker(factory, 1).duration(Long.parseLong(parameters.get("seconds")), SECONDS);
+            }
+            return new Benchmarker(factory, 1, Integer.parseInt(parameters.get("times")));
+        }
+    }
+}
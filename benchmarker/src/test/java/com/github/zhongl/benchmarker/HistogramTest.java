@@ -0,0 +1,92 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreExact() throws Exception {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 100; i++) histogram.record(i);
+
+        assertThat(histogram.count(), is(100L));
+        assertThat(histogram.min(), is(1L));
+        assertThat(histogram.max(), is(100L));
+        assertThat(histogram.valueAtPercentile(50), is(50L));
+        assertThat(histogram.valueAtPercentile(99), is(99L));
+        assertThat(histogram.mean(), closeTo(50.5, 0.001));
+    }
+
+    @Test
+    public void largeValuesAreWithinRelativeError() throws Exception {
+        Histogram histogram = new Histogram();
+        long[] values = {1000L, 123456L, 98765432L, 1234567890L};
+        for (long value : values) histogram.record(value);
+
+        for (int i = 0; i < values.length; i++) {
+            long recorded = histogram.valueAtPercentile(100.0 * (i + 1) / values.length);
+            assertThat((double) recorded, closeTo(values[i], values[i] / 128.0));
+        }
+    }
+
+    @Test
+    public void valuesAboveHighestTrackableAreClamped() throws Exception {
+        Histogram histogram = new Histogram(1000L);
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.count(), is(1L));
+        assertThat((double) histogram.max(), closeTo(1000, 1000 / 128.0));
+    }
+
+    @Test
+    public void addAndSubtract() throws Exception {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.record(10L);
+        b.record(20L);
+        b.record(30L);
+
+        Histogram merged = a.copy();
+        merged.add(b);
+        assertThat(merged.count(), is(3L));
+        assertThat(merged.max(), is(30L));
+
+        merged.subtract(a);
+        assertThat(merged.count(), is(2L));
+        assertThat(merged.min(), is(20L));
+        assertThat(a.count(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotAddIncompatible() throws Exception {
+        new Histogram().add(new Histogram(1000L));
+    }
+
+    @Test
+    public void emptyHistogram() throws Exception {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.count(), is(0L));
+        assertThat(histogram.valueAtPercentile(99), is(0L));
+        assertThat(histogram.mean(), is(0.0));
+    }
+
+    @Test
+    public void roundTripThroughStream() throws Exception {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) histogram.record(i * 1000);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        Histogram read = Histogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(read.count(), is(histogram.count()));
+        assertThat(read.valueAtPercentile(99), is(histogram.valueAtPercentile(99)));
+        assertThat(read.max(), is(histogram.max()));
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class InterleavedComparisonTest {
+
+    @Test
+    public void compareEachVariantWithBaseline() throws Exception {
+        InterleavedComparison comparison = new InterleavedComparison(1)
+                .variant("base", spin(100000L))
+                .variant("other", spin(100000L))
+                .rounds(2).round(0L, MILLISECONDS, 50L, MILLISECONDS).seed(7L);
+
+        List<InterleavedComparison.Difference> differences = comparison.compare();
+
+        assertThat(differences.size(), is(2));
+        for (InterleavedComparison.Difference d : differences) {
+            assertThat(d.variant(), is("other"));
+            assertThat(d.baseline(), is("base"));
+            assertThat(Double.isInfinite(d.change()) || Double.isNaN(d.change()), is(false));
+        }
+        assertThat(differences.get(0).metric(), is("throughput"));
+        assertThat(differences.get(1).metric(), is("latency"));
+        assertThat(comparison.statistics("base").iterator().next().latency().count(), greaterThan(0L));
+    }
+
+    @Test
+    public void detectConstantChangeWithinNoise() throws Exception {
+        double[] base = {100, 104, 98, 101, 97, 103, 99, 102};
+        double[] slower = new double[base.length];
+        double[] noise = {0.01, -0.01, 0.005, -0.005, 0.01, -0.01, 0.0, 0.0};
+        for (int i = 0; i < base.length; i++) slower[i] = base[i] * (1.1 + noise[i]);
+
+        InterleavedComparison.Difference difference =
+                InterleavedComparison.Difference.of("slower", "base", "latency", slower, base);
+
+        assertThat(difference.change(), closeTo(0.1, 0.005));
+        assertThat(difference.lower(), allOf(greaterThan(0.08), lessThan(difference.change())));
+        assertThat(difference.upper(), allOf(greaterThan(difference.change()), lessThan(0.12)));
+        assertThat(difference.significant(), is(true));
+        assertThat(difference.toString(), containsString("slower\t: latency +"));
+    }
+
+    @Test
+    public void findNoChangeBetweenIdenticalRounds() throws Exception {
+        double[] values = {100, 104, 98, 101};
+
+        InterleavedComparison.Difference difference =
+                InterleavedComparison.Difference.of("same", "base", "throughput", values, values.clone());
+
+        assertThat(difference.change(), is(0.0));
+        assertThat(difference.lower(), is(0.0));
+        assertThat(difference.upper(), is(0.0));
+        assertThat(difference.significant(), is(false));
+    }
+
+    @Test
+    public void tQuantileApproachesNormal() throws Exception {
+        assertThat(InterleavedComparison.t95(1), closeTo(12.706, 0.001));
+        assertThat(InterleavedComparison.t95(4), closeTo(2.776, 0.001));
+        assertThat(InterleavedComparison.t95(29), closeTo(2.045, 0.001));
+        assertThat(InterleavedComparison.t95(30), closeTo(2.042, 0.001));
+        assertThat(InterleavedComparison.t95(1000), closeTo(1.962, 0.001));
+    }
+
+    @Test
+    public void skipRoundsWithoutMeasuredValues() throws Exception {
+        double nan = Double.NaN, inf = Double.POSITIVE_INFINITY;
+        InterleavedComparison.Difference difference = InterleavedComparison.Difference.of("b", "a", "throughput",
+                new double[]{2.2, nan, 2.0, inf, 1.8, 2.0}, new double[]{2.0, 1.0, 2.0, 1.0, 2.0, 0.0});
+
+        assertThat(difference.change(), closeTo(0.0, 0.01)); // by rounds 0, 2 and 4 only
+        assertThat(difference.lower(), lessThan(0.0));
+        assertThat(difference.upper(), greaterThan(0.0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refuseSingleVariant() throws Exception {
+        new InterleavedComparison(1).variant("only", spin(1L)).compare();
+    }
+
+    private static CallableFactory spin(final long nanos) {
+        return new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        long end = System.nanoTime() + nanos;
+                        while (System.nanoTime() < end) ;
+                        return null;
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class LiveMetricsTest {
+
+    @Test
+    public void accumulateCountsAndKeepPercentilesOfLastInterval() throws Exception {
+        LiveMetrics live = new LiveMetrics("test");
+        live.onInterval(0L, SECONDS.toNanos(1), Arrays.asList(get(1L, 3)), idle());
+        live.onInterval(SECONDS.toNanos(1), SECONDS.toNanos(1), Arrays.asList(get(2L, 1)), idle());
+
+        assertThat(live.values().get("get.count"), is((Number) 4L));
+        assertThat(live.values().get("get.errors"), is((Number) 2L));
+        assertThat(live.values().get("get.throughput"), is((Number) 1.0));
+        assertThat(live.values().get("get.p99_ms").doubleValue(), closeTo(2.0, 0.01));
+        assertThat(live.text(), containsString("# TYPE benchmarker_latency_seconds summary\n"));
+        assertThat(live.text(), containsString(
+                "benchmarker_latency_seconds_count{run=\"test\",operation=\"get\"} 4.0"));
+        assertThat(live.text(), containsString(
+                "benchmarker_errors_total{run=\"test\",operation=\"get\",type=\"java.io.IOException\"} 2.0"));
+    }
+
+    @Test
+    public void serveOverHttpAndJmx() throws Exception {
+        LiveMetrics live = new LiveMetrics("served").serve(0).register();
+        try {
+            live.onInterval(0L, SECONDS.toNanos(1), Arrays.asList(get(1L, 5)), idle());
+
+            String host = InetAddress.getLoopbackAddress().getHostAddress(); // served there by default
+            InputStream in = new URL("http://" + host + ":" + live.port() + LiveMetrics.PATH).openStream();
+            String text = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next();
+            in.close();
+            assertThat(text, is(live.text()));
+
+            ObjectName name = new ObjectName("com.github.zhongl.benchmarker:type=LiveMetrics,run=\"served\"");
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "get.count"), is((Object) 5L));
+        } finally {
+            live.close();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("com.github.zhongl.benchmarker:type=LiveMetrics,*"), null).size(), is(0));
+    }
+
+    private static Statistics get(long millis, int count) {
+        Statistics statistics = new Statistics("get");
+        for (int i = 0; i < count; i++) statistics.addElapse(MILLISECONDS.toNanos(millis));
+        statistics.addError(new java.io.IOException());
+        return statistics;
+    }
+
+    private static RuntimeSample idle() {
+        return RuntimeSample.now().minus(RuntimeSample.now());
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class LoadProfileTest {
+
+    private static final long SECOND = SECONDS.toNanos(1);
+
+    private final LoadProfile profile = new LoadProfile()
+            .ramp(0, 100, 10, SECONDS)
+            .steps(200, 400, 100, 5, SECONDS)
+            .spike(1000, 1, SECONDS)
+            .soak(100, 60, SECONDS);
+
+    @Test
+    public void stagesOfScript() throws Exception {
+        assertThat(profile.stages().size(), is(6));
+        assertThat(profile.stages().get(0).name(), is("ramp 0->100"));
+        assertThat(profile.stages().get(3).name(), is("step 400"));
+        assertThat(profile.durationNanos(), is(86 * SECOND));
+        assertThat(profile.maxLevel(), is(1000.0));
+    }
+
+    @Test
+    public void levelAlongTime() throws Exception {
+        assertThat(profile.levelAt(-1L), is(0.0));
+        assertThat(profile.levelAt(5 * SECOND), closeTo(50.0, 0.001));
+        assertThat(profile.levelAt(16 * SECOND), is(300.0));
+        assertThat(profile.levelAt(25 * SECOND + 1), is(1000.0));
+        assertThat(profile.levelAt(100 * SECOND), is(100.0));
+    }
+
+    @Test
+    public void stageIndexAlongTime() throws Exception {
+        assertThat(profile.indexAt(0L), is(0));
+        assertThat(profile.indexAt(10 * SECOND), is(1));
+        assertThat(profile.indexAt(25 * SECOND), is(4));
+        assertThat(profile.indexAt(86 * SECOND), is(6));
+    }
+
+    @Test
+    public void descendingSteps() throws Exception {
+        LoadProfile descending = new LoadProfile().steps(3, 1, 1, 1, SECONDS);
+        assertThat(descending.stages().size(), is(3));
+        assertThat(descending.levelAt(2 * SECOND), is(1.0));
+    }
+
+    @Test
+    public void fractionalSteps() throws Exception {
+        LoadProfile fractional = new LoadProfile().steps(0.1, 0.3, 0.1, 1, SECONDS);
+        assertThat(fractional.stages().size(), is(3)); // 0.1 + 0.1 + 0.1 is a bit more than 0.3
+        assertThat(fractional.stages().get(2).name(), is("step 0.3"));
+        assertThat(fractional.levelAt(2 * SECOND), is(closeTo(0.3, 1e-9)));
+    }
+}
@@ -2,8 +2,16 @@ package com.github.zhongl.benchmarker;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
 /** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
 public class RandomOptionalFactoryTest {
 
@@ -61,5 +69,67 @@ public class RandomOptionalFactoryTest {
         af2.assertCreated(5);
     }
 
+    @Test
+    public void optionsWereCreatedByWeight() throws Exception {
+        AssertCreatedFactory f1 = new AssertCreatedFactory();
+        AssertCreatedFactory f2 = new AssertCreatedFactory();
+
+        RandomOptionalFactory randomOptionalFactory = new RandomOptionalFactory(new double[]{9, 1}, f1, f2);
+
+        for (int i = 0; i < 10000; i++) {
+            randomOptionalFactory.create();
+        }
+
+        f1.assertCreatedGreaterThan(8800);
+        f2.assertCreatedGreaterThan(800);
+    }
+
+    @Test
+    public void sameSeedSameMix() throws Exception {
+        assertThat(mixOf(42L), is(mixOf(42L)));
+        assertThat(mixOf(42L), is(not(mixOf(43L))));
+    }
+
+    @Test
+    public void threadsDrawIndependentStreams() throws Exception {
+        RandomOptionalFactory factory = new RandomOptionalFactory(new AssertCreatedFactory());
+        List<Long> first = drawOnNewThread(factory);
+        List<Long> second = drawOnNewThread(factory);
+
+        Set<Long> shared = new HashSet<Long>(first);
+        shared.retainAll(second);
+        assertThat(shared.size(), is(0)); // streams offset by draws would share all but one
+        assertThat(drawOnNewThread(new RandomOptionalFactory(new AssertCreatedFactory())), is(first));
+    }
+
+    private static List<Long> drawOnNewThread(final RandomOptionalFactory factory) throws InterruptedException {
+        final List<Long> draws = new ArrayList<Long>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 16; i++) draws.add(factory.random().nextLong());
+            }
+        });
+        thread.start();
+        thread.join();
+        return draws;
+    }
 
+    private static List<Integer> mixOf(long seed) {
+        final List<Integer> mix = new ArrayList<Integer>();
+        List<CallableFactory> options = new ArrayList<CallableFactory>();
+        for (int i = 0; i < 3; i++) {
+            final int option = i;
+            options.add(new CallableFactory() {
+                @Override
+                public Callable<?> create() {
+                    mix.add(option);
+                    return new AssertCreatedFactory().create();
+                }
+            });
+        }
+        RandomOptionalFactory factory = new RandomOptionalFactory(seed, new double[]{1, 2, 3}, options);
+        for (int i = 0; i < 100; i++) factory.create();
+        return mix;
+    }
 }
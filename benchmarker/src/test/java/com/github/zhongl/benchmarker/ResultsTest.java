@@ -0,0 +1,37 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class ResultsTest {
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        Statistics get = new Statistics("get");
+        for (long i = 1; i <= 1000; i++) get.addElapse(i * 1000, i * 2000);
+        get.addError(3000L, new IllegalStateException());
+        File file = File.createTempFile("results", ".bmk");
+        file.deleteOnExit();
+
+        new Results(Arrays.asList(get), SECONDS.toNanos(2L)).put("commit", "1e3de0b").save(file);
+        Results loaded = Results.load(file);
+
+        assertThat(loaded.metadata().get("commit"), is("1e3de0b"));
+        assertThat(loaded.metadata().get("java.version"), is(System.getProperty("java.version")));
+        assertThat(loaded.elapsedNanos(), is(SECONDS.toNanos(2L)));
+        assertThat(loaded.throughput("get"), is(500.0));
+        Statistics read = loaded.statistics("get");
+        assertThat(read.latency().valueAtPercentile(99), is(get.latency().valueAtPercentile(99)));
+        assertThat(read.correctedLatency().max(), is(get.correctedLatency().max()));
+        assertThat(read.errorCount(), is(1L));
+        assertThat(read.errorTypes().get(IllegalStateException.class.getName()), is(1L));
+        assertThat(read.errorLatency().count(), is(1L));
+    }
+}
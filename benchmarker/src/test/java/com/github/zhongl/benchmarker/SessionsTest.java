@@ -0,0 +1,95 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class SessionsTest {
+
+    private final AtomicInteger users = new AtomicInteger();
+
+    private final SessionFactory<Map<String, Object>> newUser = new SessionFactory<Map<String, Object>>() {
+        @Override
+        public Map<String, Object> create() {
+            return new HashMap<String, Object>();
+        }
+    };
+
+    private final SessionStep<Map<String, Object>> login = new SessionStep<Map<String, Object>>() {
+        @Override
+        public void call(Map<String, Object> session) throws Exception {
+            session.put("user", users.incrementAndGet());
+        }
+    };
+
+    private final SessionStep<Map<String, Object>> query = new SessionStep<Map<String, Object>>() {
+        @Override
+        public void call(Map<String, Object> session) throws Exception {
+            if (session.get("user") == null) throw new IllegalStateException("query before login");
+            Thread.sleep(1L);
+        }
+    };
+
+    @Test
+    public void thousandsOfThinkingSessionsOnFewThreads() throws Exception {
+        Sessions<Map<String, Object>> shop = new Sessions<Map<String, Object>>("shop", newUser, 4)
+                .step("login", login).think(200L, MILLISECONDS)
+                .step("query", query).think(100L, 300L, MILLISECONDS)
+                .step("logout", login);
+
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics = new Benchmarker(shop, 1, 2000).inFlight(2000).benchmark();
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        Map<String, Statistics> byName = byName(statistics);
+        assertThat(byName.get("shop.login").latency().count(), is(2000L));
+        assertThat(byName.get("shop.query").latency().count(), is(2000L));
+        assertThat(byName.get("shop.query").errorCount(), is(0L));
+        assertThat(byName.get("shop").latency().count(), is(2000L));
+        assertThat(byName.get("shop").latency().max(), lessThan(MILLISECONDS.toNanos(200L))); // without think times
+        assertThat(byName.get("shop.session").latency().min(), greaterThan(MILLISECONDS.toNanos(290L)));
+        assertThat(elapse, lessThan(5000L)); // a thread per session would need 2000 threads
+    }
+
+    @Test
+    public void keepSessionsGoingForPacing() throws Exception {
+        Sessions<Map<String, Object>> shop = new Sessions<Map<String, Object>>("shop", newUser, 2)
+                .step("login", login)
+                .pacing(100L, MILLISECONDS);
+
+        Collection<Statistics> statistics = new Benchmarker(shop, 1, 10).inFlight(2).benchmark();
+
+        Statistics session = byName(statistics).get("shop.session");
+        assertThat(session.latency().count(), is(10L));
+        assertThat(session.latency().min(), greaterThan(MILLISECONDS.toNanos(95L)));
+    }
+
+    @Test
+    public void failingStepEndsSession() throws Exception {
+        Sessions<Map<String, Object>> shop = new Sessions<Map<String, Object>>("shop", newUser, 2)
+                .step("query", query)
+                .step("login", login);
+
+        Map<String, Statistics> byName = byName(new Benchmarker(shop, 1, 10).benchmark());
+
+        assertThat(byName.get("shop.query").errorCount(), is(10L));
+        assertThat(byName.get("shop").errorCount(), is(10L));
+        assertThat(byName.get("shop.session").errorCount(), is(10L));
+        assertThat(byName.containsKey("shop.login"), is(false));
+    }
+
+    private static Map<String, Statistics> byName(Collection<Statistics> statistics) {
+        Map<String, Statistics> byName = new HashMap<String, Statistics>();
+        for (Statistics s : statistics) byName.put(s.operation(), s);
+        return byName;
+    }
+}
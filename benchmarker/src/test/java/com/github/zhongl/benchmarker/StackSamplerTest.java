@@ -0,0 +1,93 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class StackSamplerTest {
+
+    @Test
+    public void sampleStacksWhileMeasured() throws Exception {
+        File file = File.createTempFile("stacks", ".collapsed");
+        file.deleteOnExit();
+        CallableFactory factory = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return spin(1000000L);
+                    }
+                };
+            }
+        };
+        Benchmarker benchmarker = new Benchmarker(factory, 2)
+                .warmup(100L, MILLISECONDS)
+                .duration(400L, MILLISECONDS)
+                .sampleStacks(file, 5L, MILLISECONDS);
+        benchmarker.benchmark();
+
+        assertThat(benchmarker.measuredNanos(), is(MILLISECONDS.toNanos(400L))); // writing stacks is not measured
+        StackSampler sampler = benchmarker.stackSampler();
+        assertThat(sampler.samples(), allOf(greaterThan(20L), lessThan(200L)));
+        assertThat(sampler.overheadNanos(), greaterThan(0L));
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        long spinning = 0; // in the callable, the leaf frame of which depends on inlining and safepoints
+        for (String line : lines) {
+            assertThat(line, line.matches("[^ ]+(;[^ ]+)* [0-9]+"), is(true)); // frames from the root and a count
+            if (!line.contains("StackSamplerTest$1$1.call;")) continue;
+            spinning += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+        }
+        assertThat(spinning, greaterThan(sampler.samples())); // two threads spinning most of the time
+        Map<String, String> metadata = new Results(Collections.<Statistics>emptyList(), 1L).put(sampler).metadata();
+        assertThat(metadata.get("sampler.samples"), is(String.valueOf(sampler.samples())));
+    }
+
+    @Test
+    public void markBlockedThreads() throws Exception {
+        final Object lock = new Object();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waiting.countDown();
+                synchronized (lock) {
+                    lock.notify();
+                }
+            }
+        });
+        StackSampler sampler = new StackSampler();
+        synchronized (lock) {
+            blocked.start();
+            waiting.await();
+            while (blocked.getState() != Thread.State.BLOCKED) Thread.sleep(1L);
+            sampler.run();
+        }
+        blocked.join();
+
+        boolean found = false;
+        for (String stack : sampler.collapsed().keySet()) {
+            if (stack.endsWith("StackSamplerTest$2.run;" + StackSampler.BLOCKED)) found = true;
+        }
+        assertThat(found, is(true));
+        assertThat(sampler.samples(), is(1L));
+    }
+
+    private static long spin(long nanos) {
+        long end = System.nanoTime() + nanos, spins = 0;
+        while (System.nanoTime() < end) spins++;
+        return spins;
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class StatisticsCollectorTest {
+
+    private final StatisticsCollector collector = new StatisticsCollector();
+
+    @Test
+    public void internOperations() throws Exception {
+        int id = collector.idOf("op");
+        assertThat(collector.idOf("op"), is(id));
+        assertThat(collector.idOf(String.class), is(collector.idOf(String.class.getName())));
+    }
+
+    @Test
+    public void mergeStripesOfThreads() throws Exception {
+        final int read = collector.idOf("read");
+        final int write = collector.idOf("write");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) collector.elapse(read, j);
+                    collector.elapse(write, 1L);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        Collection<Statistics> snapshot = collector.snapshot();
+        assertThat(snapshot.size(), is(2));
+        for (Statistics statistics : snapshot) {
+            long expect = statistics.operation().equals("read") ? 4000L : 4L;
+            assertThat(statistics.latency().count(), is(expect));
+        }
+    }
+
+    @Test
+    public void foldStripesOfEndedThreads() throws Exception {
+        final int call = collector.idOf("call");
+        for (int i = 0; i < 200; i++) { // one after another, as callbacks of async calls may be
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    collector.elapse(call, 1000L, 2000L);
+                    collector.error(call, 3000L, new TimeoutException());
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertThat(collector.stripes(), lessThanOrEqualTo(64));
+
+        Statistics statistics = collector.snapshot().iterator().next();
+        assertThat(collector.stripes(), is(0));
+        assertThat(statistics.latency().count(), is(200L));
+        assertThat(statistics.correctedLatency().count(), is(200L));
+        assertThat(statistics.errorCount(), is(200L));
+        assertThat(statistics.errorLatency().count(), is(200L));
+        assertThat(statistics.errorTypes().get(TimeoutException.class.getName()), is(200L));
+        assertThat(collector.snapshot().iterator().next().latency().count(), is(200L));
+    }
+
+    @Test
+    public void boundStripesSharedByThreadsAllAlong() throws Exception {
+        for (int threads : new int[]{64, 1024}) {
+            StatisticsCollector shared = new StatisticsCollector();
+            shared.shareStripes(6);
+
+            recordOnLiveThreads(shared, threads);
+
+            assertThat(shared.stripes(), is(8)); // histograms do not grow with threads, only with operations
+            Statistics statistics = shared.snapshot().iterator().next();
+            assertThat(statistics.latency().count(), is((long) threads));
+            assertThat(statistics.errorCount(), is((long) threads));
+        }
+    }
+
+    @Test
+    public void snapshotSkipsOperationsNeverRecorded() throws Exception {
+        collector.idOf("unused");
+        collector.error("failed", new Exception("expected"));
+
+        Collection<Statistics> snapshot = collector.snapshot();
+        assertThat(snapshot.size(), is(1));
+        assertThat(snapshot.iterator().next().errorCount(), is(1L));
+    }
+
+    @Test
+    public void classifyErrorsByType() throws Exception {
+        int call = collector.idOf("call");
+        for (int i = 0; i < 1000; i++) collector.error(call, 5000L, new TimeoutException());
+        collector.error(call, 7000L, new IOException("reset"));
+        collector.elapse(call, 1000L);
+
+        Statistics statistics = collector.snapshot().iterator().next();
+        assertThat(statistics.errorCount(), is(1001L));
+        assertThat(statistics.errorTypes().get(TimeoutException.class.getName()), is(1000L));
+        assertThat(statistics.errorTypes().get(IOException.class.getName()), is(1L));
+        assertThat(statistics.errorLatency().count(), is(1001L));
+        assertThat(statistics.latency().count(), is(1L));
+        assertThat(statistics.errorSamples().size(), is(2));
+    }
+
+    @Test
+    public void boundErrorSamples() throws Exception {
+        for (int i = 0; i < StatisticsCollector.MAX_ERROR_SAMPLES_IN_ALL * 2; i++)
+            collector.error("op" + i, new IllegalStateException());
+
+        int samples = 0;
+        for (Statistics statistics : collector.snapshot()) samples += statistics.errorSamples().size();
+        assertThat(samples, is(StatisticsCollector.MAX_ERROR_SAMPLES_IN_ALL));
+    }
+
+    /** Records a call and a failure on each of threads, which are all alive until all have recorded. */
+    private static void recordOnLiveThreads(final StatisticsCollector collector, int threads) throws Exception {
+        final int call = collector.idOf("call");
+        final CountDownLatch recorded = new CountDownLatch(threads);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread[] started = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            started[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    collector.elapse(call, 1000L);
+                    collector.error(call, 2000L, new TimeoutException());
+                    recorded.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) { }
+                }
+            });
+            started[i].start();
+        }
+        recorded.await();
+        release.countDown();
+        for (Thread thread : started) thread.join();
+    }
+}
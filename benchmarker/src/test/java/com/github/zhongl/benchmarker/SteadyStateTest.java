@@ -0,0 +1,37 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class SteadyStateTest {
+
+    @Test
+    public void steadyAfterWindowsWithinTolerance() throws Exception {
+        SteadyState steadyState = new SteadyState(3, 0.1);
+
+        assertThat(steadyState.offer(100L, 1000L), is(false));
+        assertThat(steadyState.offer(1000L, 1000L), is(false));
+        assertThat(steadyState.offer(1000L, 1010L), is(false)); // throughput of first window is still far away
+        assertThat(steadyState.offer(1020L, 990L), is(true));
+    }
+
+    @Test
+    public void unsteadyWhileLatencyClimbs() throws Exception {
+        SteadyState steadyState = new SteadyState(3, 0.1);
+
+        for (long p99 = 1000L; p99 < 2000L; p99 += 200L) {
+            assertThat(steadyState.offer(1000L, p99), is(false));
+        }
+    }
+
+    @Test
+    public void unsteadyWithoutThroughput() throws Exception {
+        SteadyState steadyState = new SteadyState(2, 0.1);
+
+        steadyState.offer(0L, 0L);
+        assertThat(steadyState.offer(0L, 0L), is(false));
+    }
+}
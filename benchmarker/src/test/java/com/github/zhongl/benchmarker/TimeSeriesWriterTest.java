@@ -0,0 +1,84 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class TimeSeriesWriterTest {
+
+    @Test
+    public void writeCsv() throws Exception {
+        StringWriter writer = new StringWriter();
+        TimeSeriesWriter.csv(writer).onInterval(SECONDS.toNanos(2), SECONDS.toNanos(1), statistics("a,b"),
+                RuntimeSample.now().minus(RuntimeSample.now()));
+
+        String[] lines = writer.toString().split("\n");
+        assertThat(lines.length, is(2));
+        assertThat(lines[0], startsWith("elapsed_ms,operation,count,throughput,errors,error_rate,"));
+        assertThat(lines[1], startsWith("2000,\"a,b\",2,2.000,1,0.333,1.50"));
+        assertThat(lines[0].split(",").length, is(lines[1].split(",").length - 1)); // the quoted comma
+    }
+
+    @Test
+    public void writeJsonLines() throws Exception {
+        StringWriter writer = new StringWriter();
+        TimeSeriesWriter.jsonLines(writer).onInterval(0L, MILLISECONDS.toNanos(500), statistics("say \"hi\""),
+                RuntimeSample.now().minus(RuntimeSample.now()));
+
+        assertThat(writer.toString(), startsWith(
+                "{\"elapsed_ms\":0,\"operation\":\"say \\\"hi\\\"\",\"count\":2,\"throughput\":4.000,\"errors\":1,"));
+        assertThat(writer.toString(), containsString(",\"gc_count\":"));
+        assertThat(writer.toString(), endsWith("}\n"));
+    }
+
+    @Test
+    public void writeUnavailableAllocation() throws Exception {
+        StringWriter writer = new StringWriter();
+        TimeSeriesWriter.jsonLines(writer).onInterval(0L, SECONDS.toNanos(1), statistics("virtual"),
+                RuntimeSample.now().minus(RuntimeSample.now()).withoutAllocation()); // e.g. of virtual threads
+
+        assertThat(writer.toString(), containsString(",\"alloc_mb_per_s\":-1,"));
+    }
+
+    @Test
+    public void streamIntervalsOfRun() throws Exception {
+        StringWriter writer = new StringWriter();
+        CallableFactory factory = new CallableFactory() {
+            @Override
+            public Callable<?> create() {
+                return new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        Thread.sleep(5L);
+                        return null;
+                    }
+                };
+            }
+        };
+
+        new Benchmarker(factory, 1)
+                .duration(1L, SECONDS)
+                .interval(200L, MILLISECONDS)
+                .listen(TimeSeriesWriter.csv(writer))
+                .benchmark();
+
+        assertThat(writer.toString().split("\n").length, allOf(greaterThanOrEqualTo(6), lessThanOrEqualTo(7)));
+    }
+
+    private static Collection<Statistics> statistics(String operation) {
+        Statistics statistics = new Statistics(operation);
+        statistics.addElapse(MILLISECONDS.toNanos(1));
+        statistics.addElapse(MILLISECONDS.toNanos(2));
+        statistics.addError(new Exception());
+        return Arrays.asList(statistics);
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.zhongl.benchmarker;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a> */
+public class TraceReplayTest {
+
+    private static final ReplayHandler DECODE = new ReplayHandler() {
+        @Override
+        public Object call(ByteBuffer payload) throws Exception {
+            return StandardCharsets.UTF_8.decode(payload).toString();
+        }
+    };
+
+    @Test
+    public void replayWithOriginalGapsSpedUp() throws Exception {
+        File trace = trace(50, MILLISECONDS.toNanos(10L)); // 490ms as recorded
+        final List<String> replayed = Collections.synchronizedList(new ArrayList<String>());
+        ReplayHandler handler = new ReplayHandler() {
+            @Override
+            public Object call(ByteBuffer payload) throws Exception {
+                replayed.add(StandardCharsets.UTF_8.decode(payload).toString());
+                return null;
+            }
+        };
+        TraceReplay replay = new TraceReplay(trace, handler).speedUp(2);
+        long begin = System.nanoTime();
+        Collection<Statistics> statistics;
+        try {
+            statistics = new Benchmarker(replay, 4).timed().benchmark();
+        } finally {
+            replay.close();
+        }
+        long elapse = NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        Statistics s = statistics.iterator().next();
+        assertThat(s.operation(), is(handler.getClass().getName()));
+        assertThat(s.latency().count(), is(50L));
+        assertThat(replayed.size(), is(50));
+        assertThat(replayed, hasItems("request-0", "request-49"));
+        assertThat(elapse, allOf(greaterThanOrEqualTo(245L), lessThan(1000L)));
+    }
+
+    @Test
+    public void streamRecordsAcrossWindows() throws Exception {
+        File trace = trace(20, 1L);
+        // a record takes 21 or 22 bytes, so most straddle windows of 32 bytes
+        TraceReplay replay = new TraceReplay(trace, DECODE, 32L);
+        try {
+            for (int i = 0; i < 20; i++) {
+                Callable<?> callable = replay.create();
+                assertThat(callable.call(), is((Object) ("request-" + i)));
+                assertThat(((Timed) callable).offsetNanos(), is((long) i));
+            }
+            assertThat(replay.create(), is(nullValue()));
+        } finally {
+            replay.close();
+        }
+    }
+
+    @Test
+    public void refuseFileOtherThanTrace() throws Exception {
+        File file = File.createTempFile("not", ".trace");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a trace".getBytes(StandardCharsets.UTF_8));
+        out.close();
+        try {
+            new TraceReplay(file, DECODE);
+            fail("should refuse");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), endsWith("is not a trace"));
+        }
+    }
+
+    private static File trace(int requests, long gapNanos) throws IOException {
+        File file = File.createTempFile("requests", ".trace");
+        file.deleteOnExit();
+        TraceReplay.Writer writer = TraceReplay.writer(file);
+        try {
+            long timestamp = 1234567890L;
+            for (int i = 0; i < requests; i++, timestamp += gapNanos) {
+                writer.append(timestamp, ("request-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.zhongl.codejam;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prime engines dividing by known primes or every smaller number, which are too slow for the sizes of
+ * {@link SievePrimeBenchmark}.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DivisionPrimeBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    /** Threads per processor. */
+    @Param({"1", "2", "4"})
+    public int factor;
+
+    private int parallels;
+
+    @Setup
+    public void setUp() {
+        parallels = Runtime.getRuntime().availableProcessors() * factor;
+    }
+
+    @Benchmark
+    public int countPrimeByDivision() {
+        return CountPrimeByDivision$.MODULE$.countPrimeIn(size);
+    }
+
+    @Benchmark
+    public int threadBasedPrime1() throws Exception {
+        return ThreadBasedPrime1.countPrimeFromOneTo(size, parallels);
+    }
+
+    @Benchmark
+    public int threadBasedPrime2() throws Exception {
+        return new ThreadBasedPrime2.Counter(size, Integer.MAX_VALUE, 10000, factor).call(); // never print progress
+    }
+
+    @Benchmark
+    public int threadBasedPrime3() throws Exception {
+        return new ThreadBasedPrime3.Counter(size, factor).call();
+    }
+
+    @Benchmark
+    public int actorBasedPrime() {
+        return ActorBasedPrime$.MODULE$.countPrimeIn(size, Math.max(2, parallels)); // it splits into parallels - 1
+    }
+}
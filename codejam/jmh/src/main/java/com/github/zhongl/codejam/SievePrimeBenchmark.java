@@ -0,0 +1,49 @@
+package com.github.zhongl.codejam;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prime engines sieving a bit set, timed without the JVM startup and JIT warm-up the printf of their <code>main</code>
+ * includes.
+ *
+ * @author <a href="mailto:zhong.lunfu@gmail.com">zhongl<a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SievePrimeBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    /** Threads per processor. */
+    @Param({"1", "2", "4"})
+    public int factor;
+
+    private int parallels;
+
+    @Setup
+    public void setUp() {
+        parallels = Runtime.getRuntime().availableProcessors() * factor;
+    }
+
+    @Benchmark
+    public int primeDetector() {
+        return new PrimeDetector(size).detect().count();
+    }
+
+    @Benchmark
+    public int countPrimeByFilter() {
+        return CountPrimeByFilter$.MODULE$.countPrimeIn(size);
+    }
+
+    @Benchmark
+    public int countPrimeByParFilter() {
+        return CountPrimeByParFilter$.MODULE$.countPrimeIn(size, parallels);
+    }
+}
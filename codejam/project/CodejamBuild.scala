@@ -18,4 +18,23 @@ object CodejamBuild extends Build {
       // add other settings here
     )
   )
+
+  // sbt "codejam-jmh/run [jmh options]", e.g. "codejam-jmh/run -p size=10000 Division"
+  lazy val jmh = Project(
+    id = "codejam-jmh",
+    base = file("jmh"),
+    dependencies = Seq(codejam),
+    settings = Project.defaultSettings ++ Seq(
+      name := "codejam-jmh",
+      organization := "com.github.zhongl",
+      version := "0.1-SNAPSHOT",
+      scalaVersion := "2.9.2",
+      libraryDependencies ++= Seq(
+        "org.openjdk.jmh" % "jmh-core" % "1.37",
+        "org.openjdk.jmh" % "jmh-generator-annprocess" % "1.37"
+      ),
+      mainClass in (Compile, run) := Some("org.openjdk.jmh.Main"),
+      fork in run := true // forked benchmarks need the classpath of the runner
+    )
+  )
 }
@@ -15,13 +15,12 @@ public class ThreadBasedPrime1 {
     public static void main(String[] args) throws InterruptedException {
         int num = Integer.parseInt(args[0]);
         long begin = currentTimeMillis();
-        int count = countPrimeFromOneTo(num);
+        int count = countPrimeFromOneTo(num, Runtime.getRuntime().availableProcessors() * 2);
         long end = currentTimeMillis();
         out.printf("the count of primes from 1 to %1$s is: %2$s, time elapse: %3$,d ms\n", num, count, end - begin);
     }
 
-    private static int countPrimeFromOneTo(final int num) throws InterruptedException {
-        final int SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    static int countPrimeFromOneTo(final int num, final int SIZE) throws InterruptedException {
         final AtomicInteger SEQ = new AtomicInteger(2);
         final AtomicInteger COUNT = new AtomicInteger(1);
         final CountDownLatch LATCH = new CountDownLatch(SIZE);
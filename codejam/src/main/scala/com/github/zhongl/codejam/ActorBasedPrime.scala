@@ -19,7 +19,7 @@ object ActorBasedPrime extends App {
   val (elapse, count) = time { countPrimeIn(num, parallels) }
   printf("the count of primes from 1 to %1$s is: %2$s, time elapse: %3$,d ms\n", num, count, elapse)
 
-  private def countPrimeIn(num: Int, parallels: Int) = {
+  private[codejam] def countPrimeIn(num: Int, parallels: Int) = {
     var count = 1 // include num number: 2
     var finished = 0
     var running = true
@@ -13,7 +13,7 @@ object CountPrimeByDivision extends App {
   val (elapse, count) = time { countPrimeIn(num) }
   printf("the count of primes from 1 to %1$s is: %2$s, time elapse: %3$,d ms\n", num, count, elapse)
 
-  private def countPrimeIn(num: Int) = {
+  private[codejam] def countPrimeIn(num: Int) = {
     val primes = ArrayBuffer(2) // 2 is the first num number
 
     @inline def isPrime(n: Int) = (primes /*.par*/ find { n % _ == 0 }).isEmpty
@@ -18,9 +18,10 @@ object CountPrimeByParFilter extends App {
   val count = countPrimeIn(num)
   printf("the count of primes from 1 to %1$s is: %2$s, time elapse: %3$,d ms\n", num, count, now - begin)
 
-  def countPrimeIn(num: Int) = {
+  def countPrimeIn(num: Int): Int = countPrimeIn(num, sys.runtime.availableProcessors() * 2)
+
+  def countPrimeIn(num: Int, parallels: Int): Int = {
     val maxValidateNum = math.sqrt(num).toInt + 1
-    val parallels = sys.runtime.availableProcessors() * 2
     val main = self
 
     0 until parallels foreach {